@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.intelligence.search;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Parcel;
+
+import com.android.settings.intelligence.search.indexing.DatabaseIndexingUtils;
+
+/**
+ * {@link ResultPayload} of a result from the search index. The Intent is built from the columns
+ * of the result when it is first needed, as most matched results are never clicked.
+ */
+public class IndexedResultPayload extends ResultPayload {
+
+    private final Context mContext;
+    private final String mIntentAction;
+    private final String mIntentTargetPackage;
+    private final String mIntentTargetClass;
+    private final String mClassName;
+    private final String mKey;
+    private final String mScreenTitle;
+
+    private Intent mLazyIntent;
+
+    public IndexedResultPayload(Context context, String intentAction, String intentTargetPackage,
+            String intentTargetClass, String className, String key, String screenTitle) {
+        super((Intent) null);
+        mContext = context.getApplicationContext();
+        mIntentAction = intentAction;
+        mIntentTargetPackage = intentTargetPackage;
+        mIntentTargetClass = intentTargetClass;
+        mClassName = className;
+        mKey = key;
+        mScreenTitle = screenTitle;
+    }
+
+    @Override
+    public Intent getIntent() {
+        if (mLazyIntent == null) {
+            mLazyIntent = DatabaseIndexingUtils.buildSearchResultIntent(mContext, mIntentAction,
+                    mIntentTargetPackage, mIntentTargetClass, mClassName, mKey, mScreenTitle);
+        }
+        return mLazyIntent;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeParcelable(getIntent(), flags);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.ContextThemeWrapper;
+
+import com.android.settings.intelligence.R;
+
+/**
+ * Process-wide cache of the {@link Context}s of other packages, shared by indexing and by the
+ * query path so a package context is not created again for every provider or every keystroke.
+ *
+ * The cache is bounded, and the contexts of a package are dropped when the package changes.
+ */
+public class PackageContextCache {
+
+    private static final String TAG = "PackageContextCache";
+
+    private static final int MAX_SIZE = 32;
+
+    private static PackageContextCache sSingleton;
+
+    private final Context mContext;
+    private final LruCache<String, Context> mPackageContexts = new LruCache<>(MAX_SIZE);
+    private final LruCache<String, Context> mThemedPackageContexts = new LruCache<>(MAX_SIZE);
+
+    private Resources.Theme mTheme;
+
+    public static synchronized PackageContextCache getInstance(Context context) {
+        if (sSingleton == null) {
+            sSingleton = new PackageContextCache(context.getApplicationContext());
+        }
+        return sSingleton;
+    }
+
+    private PackageContextCache(Context context) {
+        mContext = context;
+
+        final BroadcastReceiver packageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final Uri data = intent.getData();
+                if (data != null) {
+                    invalidate(data.getSchemeSpecificPart());
+                }
+            }
+        };
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(packageReceiver, packageFilter);
+
+        final BroadcastReceiver localeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                invalidateAll();
+            }
+        };
+        mContext.registerReceiver(localeReceiver, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    /**
+     * @return the {@link Context} of {@param packageName}.
+     */
+    public Context getPackageContext(String packageName)
+            throws PackageManager.NameNotFoundException {
+        Context packageContext = mPackageContexts.get(packageName);
+        if (packageContext == null) {
+            packageContext = mContext.createPackageContext(packageName, 0);
+            mPackageContexts.put(packageName, packageContext);
+        }
+        return packageContext;
+    }
+
+    /**
+     * @return the {@link Context} of {@param packageName}, using the Settings theme to load
+     * resources such as icons.
+     */
+    public Context getThemedPackageContext(String packageName)
+            throws PackageManager.NameNotFoundException {
+        Context themedContext = mThemedPackageContexts.get(packageName);
+        if (themedContext == null) {
+            themedContext = new ContextThemeWrapper(getPackageContext(packageName), getTheme());
+            mThemedPackageContexts.put(packageName, themedContext);
+        }
+        return themedContext;
+    }
+
+    /**
+     * Drops the contexts of {@param packageName}.
+     */
+    public void invalidate(String packageName) {
+        if (DEBUG) {
+            Log.d(TAG, "Invalidating contexts of " + packageName);
+        }
+        mPackageContexts.remove(packageName);
+        mThemedPackageContexts.remove(packageName);
+    }
+
+    /**
+     * Drops all contexts.
+     */
+    public synchronized void invalidateAll() {
+        mPackageContexts.evictAll();
+        mThemedPackageContexts.evictAll();
+        mTheme = null;
+    }
+
+    private synchronized Resources.Theme getTheme() {
+        if (mTheme == null) {
+            mTheme = new ContextThemeWrapper(mContext, R.style.Theme_Settings).getTheme();
+        }
+        return mTheme;
+    }
+}
@@ -65,7 +65,8 @@ public interface SearchFeatureProvider {
 
     /**
      * Updates the Settings indexes and calls {@link IndexingCallback#onIndexingFinished()} on
-     * {@param callback} when indexing is complete.
+     * {@param callback} when indexing is complete. {@link IndexingCallback#onIndexingProgress()}
+     * is called before, each time the providers of a priority tier can be searched.
      */
     void updateIndexAsync(Context context, IndexingCallback callback);
 
@@ -74,6 +75,11 @@ public interface SearchFeatureProvider {
      */
     boolean isIndexingComplete(Context context);
 
+    /**
+     * @return true when the index can be queried, which may be while it is being updated.
+     */
+    boolean isIndexAvailable(Context context);
+
     /**
      * @return a {@link ExecutorService} to be shared between search tasks.
      */
@@ -25,8 +25,8 @@ import android.util.Pair;
 import android.view.View;
 
 import com.android.settings.intelligence.search.indexing.DatabaseIndexingManager;
-import com.android.settings.intelligence.search.indexing.IndexData;
 import com.android.settings.intelligence.search.indexing.IndexingCallback;
+import com.android.settings.intelligence.search.indexing.TextNormalizer;
 import com.android.settings.intelligence.search.query.AccessibilityServiceResultTask;
 import com.android.settings.intelligence.search.query.DatabaseResultTask;
 import com.android.settings.intelligence.search.query.InputDeviceResultTask;
@@ -95,6 +95,11 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
         return getIndexingManager(context).isIndexingComplete();
     }
 
+    @Override
+    public boolean isIndexAvailable(Context context) {
+        return getIndexingManager(context).isIndexAvailable();
+    }
+
     @Override
     public void initFeedbackButton() {
     }
@@ -131,11 +136,27 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
     }
 
     @Override
-    public void updateIndexAsync(Context context, IndexingCallback callback) {
+    public void updateIndexAsync(Context context, final IndexingCallback callback) {
         if (DEBUG) {
             Log.d(TAG, "updating index async");
         }
-        getIndexingManager(context).indexDatabase(callback);
+        getIndexingManager(context).indexDatabase(new IndexingCallback() {
+            @Override
+            public void onIndexingProgress() {
+                if (callback != null) {
+                    callback.onIndexingProgress();
+                }
+            }
+
+            @Override
+            public void onIndexingFinished() {
+                // The site map may have been loaded from the previous index.
+                getSiteMapManager().invalidate();
+                if (callback != null) {
+                    callback.onIndexingFinished();
+                }
+            }
+        });
     }
 
     @Override
@@ -157,7 +178,7 @@ public class SearchFeatureProviderImpl implements SearchFeatureProvider {
             return null;
         }
         if (Locale.getDefault().equals(Locale.JAPAN)) {
-            query = IndexData.normalizeJapaneseString(query);
+            query = TextNormalizer.normalizeJapaneseString(query);
         }
         return query.trim();
     }
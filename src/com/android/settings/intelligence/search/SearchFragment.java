@@ -54,8 +54,9 @@ import java.util.List;
  * This fragment manages the lifecycle of indexing and searching.
  *
  * In onCreate, the indexing process is initiated in DatabaseIndexingManager.
- * While the indexing is happening, loaders are blocked from accessing the database, but the user
- * is free to start typing their query.
+ * While the indexing is happening, loaders query the previously committed index if there is one.
+ * Otherwise they are blocked from accessing the database, but the user is free to start typing
+ * their query.
  *
  * When the indexing is complete, the fragment gets a callback to initialize the loaders and search
  * the query if the user has entered text.
@@ -231,8 +232,8 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
         mNeverEnteredQuery = false;
         mQuery = query;
 
-        // If indexing is not finished, register the query text, but don't search.
-        if (!mSearchFeatureProvider.isIndexingComplete(getActivity())) {
+        // If there is no index yet, register the query text, but don't search.
+        if (!mSearchFeatureProvider.isIndexAvailable(getActivity())) {
             return true;
         }
 
@@ -280,11 +281,24 @@ public class SearchFragment extends Fragment implements SearchView.OnQueryTextLi
     public void onLoaderReset(Loader<List<? extends SearchResult>> loader) {
     }
 
+    /**
+     * Gets called when the highest priority providers have been indexed, so their results can
+     * be shown while the remaining providers are still being indexed.
+     */
+    @Override
+    public void onIndexingProgress() {
+        onIndexUpdated();
+    }
+
     /**
      * Gets called when Indexing is completed.
      */
     @Override
     public void onIndexingFinished() {
+        onIndexUpdated();
+    }
+
+    private void onIndexUpdated() {
         if (getActivity() == null) {
             return;
         }
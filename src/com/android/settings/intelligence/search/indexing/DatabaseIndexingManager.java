@@ -16,46 +16,33 @@
 
 package com.android.settings.intelligence.search.indexing;
 
-import static com.android.settings.intelligence.search.query.DatabaseResultTask.SELECT_COLUMNS;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_AUTHORITY;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_PACKAGE;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.CLASS_NAME;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_ENTRIES;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_KEYWORDS;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_KEY_REF;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON_NORMALIZED;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_TITLE;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.DATA_TITLE_NORMALIZED;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.ENABLED;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.ICON;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.INTENT_ACTION;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.PAYLOAD;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE;
-import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns.SCREEN_TITLE;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
 import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.provider.SearchIndexablesContract;
-import androidx.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import androidx.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 
 import com.android.settings.intelligence.nano.SettingsIntelligenceLogProto;
 import com.android.settings.intelligence.overlay.FeatureFactory;
-import com.android.settings.intelligence.search.sitemap.SiteMapPair;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -71,11 +58,47 @@ public class DatabaseIndexingManager {
 
     private static final String TAG = "DatabaseIndexingManager";
 
+    private static final String TABLE_NON_INDEXABLE_KEYS = "temp.non_indexable_keys";
+
+    private static final String CREATE_NON_INDEXABLE_KEYS_TABLE =
+            "CREATE TEMP TABLE IF NOT EXISTS non_indexable_keys"
+                    + "(" + DATA_AUTHORITY + " TEXT NOT NULL"
+                    + ", " + DATA_KEY_REF + " TEXT NOT NULL"
+                    + ", PRIMARY KEY (" + DATA_AUTHORITY + ", " + DATA_KEY_REF + "))";
+
+    private static final String DROP_NON_INDEXABLE_KEYS_TABLE =
+            "DROP TABLE IF EXISTS " + TABLE_NON_INDEXABLE_KEYS;
+
+    private static final String INSERT_NON_INDEXABLE_KEY =
+            "INSERT OR IGNORE INTO " + TABLE_NON_INDEXABLE_KEYS
+                    + " (" + DATA_AUTHORITY + ", " + DATA_KEY_REF + ") VALUES (?, ?)";
+
+    private static final String NON_INDEXABLE_KEY_EXISTS =
+            "EXISTS (SELECT 1 FROM " + TABLE_NON_INDEXABLE_KEYS + " k"
+                    + " WHERE k." + DATA_AUTHORITY + " = " + TABLE_PREFS_INDEX + "."
+                    + DATA_AUTHORITY
+                    + " AND k." + DATA_KEY_REF + " = " + TABLE_PREFS_INDEX + "." + DATA_KEY_REF
+                    + ")";
+
+    private static final String DISABLE_NON_INDEXABLE_ROWS =
+            "UPDATE " + TABLE_PREFS_INDEX
+                    + " SET " + ENABLED + " = 0"
+                    + " WHERE " + ENABLED + " = 1"
+                    + " AND " + NON_INDEXABLE_KEY_EXISTS;
+
     @VisibleForTesting
     final AtomicBoolean mIsIndexingComplete = new AtomicBoolean(false);
 
-    private PreIndexDataCollector mCollector;
-    private IndexDataConverter mConverter;
+    private IndexingPipeline mPipeline;
+
+    private IndexFreshnessTracker mFreshnessTracker;
+
+    private IndexingPriority mIndexingPriority;
+
+    /**
+     * Serializes indexing started by the search UI and by the {@link IndexingJobService}.
+     */
+    private final Object mIndexingLock = new Object();
 
     private Context mContext;
 
@@ -87,6 +110,14 @@ public class DatabaseIndexingManager {
         return mIsIndexingComplete.get();
     }
 
+    /**
+     * @return true if the index can be queried. This is the case once any index has been
+     * committed, as an ongoing indexing only replaces it provider by provider.
+     */
+    public boolean isIndexAvailable() {
+        return isIndexingComplete() || IndexDatabaseHelper.isIndexAvailable(mContext);
+    }
+
     public void indexDatabase(IndexingCallback callback) {
         IndexingTask task = new IndexingTask(callback);
         task.execute();
@@ -94,213 +125,308 @@ public class DatabaseIndexingManager {
 
     /**
      * Accumulate all data and non-indexable keys from each of the content-providers.
-     * Only the first indexing for the default language gets static search results - subsequent
-     * calls will only gather non-indexable keys.
+     * Only providers whose index generation is out of date get their static search results
+     * re-indexed - all other providers only have their non-indexable keys gathered.
+     * Providers are only queried when the {@link IndexFreshnessTracker} considers them dirty,
+     * so this is a no-op when nothing changed since the last index.
      */
     public void performIndexing() {
+        performIndexing(null /* tierCommittedCallback */, null /* cancellationSignal */);
+    }
+
+    /**
+     * Same as {@link #performIndexing()}, but stops once the provider being written is committed
+     * when {@param cancellationSignal} is canceled. The next indexing resumes from there.
+     */
+    public void performIndexing(CancellationSignal cancellationSignal) {
+        performIndexing(null /* tierCommittedCallback */, cancellationSignal);
+    }
+
+    /**
+     * @return true if indexing would update the index, i.e. a full index is needed or the
+     * indexed data of a provider is stale. Queries the package manager.
+     */
+    public boolean isIndexStale() {
+        if (IndexDatabaseHelper.isFullIndex(mContext)) {
+            return true;
+        }
         final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
         final List<ResolveInfo> providers =
                 mContext.getPackageManager().queryIntentContentProviders(intent, 0);
+        return !IndexDatabaseHelper.getStaleAuthorities(mContext, providers,
+                false /* isFullIndex */).isEmpty();
+    }
 
-        final boolean isFullIndex = IndexDatabaseHelper.isFullIndex(mContext, providers);
+    /**
+     * @param tierCommittedCallback run on the indexing thread each time the providers of a
+     *                              priority tier have been committed, if not null.
+     * @param cancellationSignal    checked each time a provider has been committed, if not null.
+     */
+    private void performIndexing(Runnable tierCommittedCallback,
+            CancellationSignal cancellationSignal) {
+        synchronized (mIndexingLock) {
+            final IndexFreshnessTracker freshnessTracker = getFreshnessTracker();
+            if (freshnessTracker.isClean()) {
+                if (DEBUG) {
+                    Log.d(TAG, "performIndexing nothing changed since the last index");
+                }
+                return;
+            }
+            final Set<String> dirtyAuthorities = freshnessTracker.takeDirtyAuthorities();
+
+            final Intent intent = new Intent(SearchIndexablesContract.PROVIDER_INTERFACE);
+            // Sorted so that the providers of the highest priority are committed first.
+            final List<ResolveInfo> providers = getIndexingPriority().sort(
+                    mContext.getPackageManager().queryIntentContentProviders(intent, 0));
+
+            final boolean isFullIndex = IndexDatabaseHelper.isFullIndex(mContext);
+
+            final Set<String> staleAuthorities =
+                    IndexDatabaseHelper.getStaleAuthorities(mContext, providers, isFullIndex);
+            // Only stale and dirty providers are queried, unless all of them may have changed.
+            final List<ResolveInfo> providersToUpdate = isFullIndex || dirtyAuthorities == null
+                    ? providers : filterProviders(providers, staleAuthorities, dirtyAuthorities);
+            if (DEBUG) {
+                Log.d(TAG, "performIndexing full index: " + isFullIndex + ", stale authorities: "
+                        + staleAuthorities + ", dirty authorities: "
+                        + (dirtyAuthorities == null ? "all" : dirtyAuthorities));
+            }
 
-        if (isFullIndex) {
-            rebuildDatabase();
+            final long updateDatabaseStartTime = System.currentTimeMillis();
+            final PreIndexData indexData =
+                    updateDatabase(providersToUpdate, staleAuthorities, isFullIndex,
+                            tierCommittedCallback, cancellationSignal);
+            if (indexData == null) {
+                freshnessTracker.markDirty(dirtyAuthorities);
+                return;
+            }
+            // Providers which were skipped keep their previous generation, so they are retried next
+            // time if they are stale.
+            if (!indexData.getFailedAuthorities().isEmpty()) {
+                Log.w(TAG, "Index is incomplete, skipped " + indexData.getFailedAuthorities());
+            }
+            IndexDatabaseHelper.setIndexed(mContext, providers, indexData.getFailedAuthorities());
+            freshnessTracker.onIndexed(providers);
+            freshnessTracker.markDirty(indexData.getFailedAuthorities());
+            if (DEBUG) {
+                final long updateDatabaseTime =
+                        System.currentTimeMillis() - updateDatabaseStartTime;
+                Log.d(TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
+            }
         }
+    }
 
-        PreIndexData indexData = getIndexDataFromProviders(providers, isFullIndex);
-
-        final long updateDatabaseStartTime = System.currentTimeMillis();
-        updateDatabase(indexData, isFullIndex);
-        IndexDatabaseHelper.setIndexed(mContext, providers);
-        if (DEBUG) {
-            final long updateDatabaseTime = System.currentTimeMillis() - updateDatabaseStartTime;
-            Log.d(TAG, "performIndexing updateDatabase took time: " + updateDatabaseTime);
+    private synchronized IndexFreshnessTracker getFreshnessTracker() {
+        if (mFreshnessTracker == null) {
+            mFreshnessTracker = new IndexFreshnessTracker(mContext);
         }
+        return mFreshnessTracker;
     }
 
-    @VisibleForTesting
-    PreIndexData getIndexDataFromProviders(List<ResolveInfo> providers, boolean isFullIndex) {
-        if (mCollector == null) {
-            mCollector = new PreIndexDataCollector(mContext);
+    private synchronized IndexingPriority getIndexingPriority() {
+        if (mIndexingPriority == null) {
+            mIndexingPriority = new IndexingPriority(mContext);
         }
-        return mCollector.collectIndexableData(providers, isFullIndex);
+        return mIndexingPriority;
     }
 
     /**
-     * Drop the currently stored database, and clear the flags which mark the database as indexed.
+     * @return the providers whose authority is stale or dirty.
      */
-    private void rebuildDatabase() {
-        // Drop the database when the locale or build has changed. This eliminates rows which are
-        // dynamically inserted in the old language, or deprecated settings.
-        final SQLiteDatabase db = getWritableDatabase();
-        IndexDatabaseHelper.getInstance(mContext).reconstruct(db);
+    private static List<ResolveInfo> filterProviders(List<ResolveInfo> providers,
+            Set<String> staleAuthorities, Set<String> dirtyAuthorities) {
+        final List<ResolveInfo> result = new ArrayList<>();
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            if (staleAuthorities.contains(authority) || dirtyAuthorities.contains(authority)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    private IndexingPipeline getIndexingPipeline() {
+        if (mPipeline == null) {
+            mPipeline = new IndexingPipeline(new PreIndexDataCollector(mContext),
+                    new IndexDataConverter(mContext));
+        }
+        return mPipeline;
     }
 
     /**
      * Adds new data to the database and verifies the correctness of the ENABLED column.
-     * First, the data to be updated and all non-indexable keys are copied locally.
-     * Then all new data to be added is inserted.
-     * Then search results are verified to have the correct value of enabled.
-     * Finally, we record that the locale has been indexed.
+     * The data of all providers is streamed through the {@link IndexingPipeline}, which replaces
+     * the rows of each stale authority as its provider is collected.
+     * Then search results of the other authorities are verified to have the correct value of
+     * enabled.
      *
-     * @param isFullIndex true the database needs to be rebuilt.
+     * The transaction is committed each time the rows of a provider have been written, together
+     * with an {@link IndexingCheckpoint}. A run which is interrupted, e.g. because the process is
+     * killed, keeps the providers it completed, and the next run does not index them again.
+     * The database is write-ahead-logged, so queries keep reading the last committed rows.
+     * Providers are written in the order of {@param providers}, and
+     * {@param tierCommittedCallback} is run once all providers of a priority tier are committed.
+     * Once all providers are written, the breadcrumbs of the rewritten rows, and of the screens
+     * below the written site map pairs, are stored from the new site map. Canceling {@param cancellationSignal} stops the run like an interruption, but only
+     * between two providers.
+     *
+     * @param staleAuthorities the authorities whose rows are replaced.
+     * @param isFullIndex      whether all indexed data is replaced. This eliminates rows which
+     *                         are dynamically inserted by deprecated settings.
+     * @return the non-indexable keys and failed authorities of the providers, or null if the
+     * database could not be updated.
      */
     @VisibleForTesting
-    void updateDatabase(PreIndexData preIndexData, boolean isFullIndex) {
-        final Map<String, Set<String>> nonIndexableKeys = preIndexData.getNonIndexableKeys();
-
+    PreIndexData updateDatabase(List<ResolveInfo> providers, Set<String> staleAuthorities,
+            boolean isFullIndex, Runnable tierCommittedCallback,
+            CancellationSignal cancellationSignal) {
         final SQLiteDatabase database = getWritableDatabase();
         if (database == null) {
             Log.w(TAG, "Cannot indexDatabase Index as I cannot get a writable database");
-            return;
+            return null;
+        }
+
+        final IndexingCheckpoint checkpoint = IndexingCheckpoint.load(database);
+        final boolean isResumed = !checkpoint.isEmpty();
+        if (isResumed) {
+            final Set<String> completedAuthorities =
+                    checkpoint.getCompletedAuthorities(mContext, providers);
+            // Completed providers only have their non-indexable keys refreshed.
+            staleAuthorities.removeAll(completedAuthorities);
+            Log.i(TAG, "Resuming indexing, completed authorities: " + completedAuthorities);
+        }
+        final Map<String, ResolveInfo> providersByAuthority = new ArrayMap<>();
+        for (ResolveInfo info : providers) {
+            if (!TextUtils.isEmpty(info.providerInfo.authority)) {
+                providersByAuthority.put(info.providerInfo.authority, info);
+            }
         }
 
         try {
             database.beginTransaction();
 
-            // Convert all Pre-index data to Index data and and insert to db.
-            final List<IndexData> indexData = getIndexData(preIndexData);
-            insertIndexData(database, indexData);
-            insertSiteMapData(database, getSiteMapPairs(indexData, preIndexData.getSiteMapPairs()));
+            final PreIndexData preIndexData = getIndexingPipeline().run(database, providers,
+                    staleAuthorities, isFullIndex && !isResumed,
+                    new ProviderCommitter(database, providersByAuthority, staleAuthorities,
+                            checkpoint, tierCommittedCallback, cancellationSignal));
 
-            // Only check for non-indexable key updates after initial index.
-            // Enabled state with non-indexable keys is checked when items are first inserted.
-            if (!isFullIndex) {
-                updateDataInDatabase(database, nonIndexableKeys);
+            if (isFullIndex) {
+                IndexDatabaseHelper.getInstance(mContext).finishFullIndex(database,
+                        providersByAuthority.keySet());
             }
+            if (isFullIndex || isResumed) {
+                // The whole site map may have changed, and the providers committed before the
+                // run was interrupted have no breadcrumbs yet.
+                try (IndexDataBulkLoader loader = new IndexDataBulkLoader(database)) {
+                    loader.updateBreadcrumbs();
+                }
+            } else if (!staleAuthorities.isEmpty() || !preIndexData.getSiteMapPairs().isEmpty()) {
+                // Only the rewritten rows, and the screens below the written site map pairs, may
+                // have new breadcrumbs.
+                final Set<String> siteMapClassNames = new ArraySet<>();
+                for (Pair<String, String> pair : preIndexData.getSiteMapPairs()) {
+                    siteMapClassNames.add(pair.second);
+                }
+                try (IndexDataBulkLoader loader = new IndexDataBulkLoader(database)) {
+                    loader.updateBreadcrumbs(staleAuthorities, siteMapClassNames);
+                }
+            }
+            IndexingCheckpoint.clear(database);
 
             database.setTransactionSuccessful();
+            return preIndexData;
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Indexing was interrupted, rolling back to the last completed provider");
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (OperationCanceledException e) {
+            Log.i(TAG, "Indexing was stopped after the last completed provider");
+            return null;
         } finally {
             database.endTransaction();
         }
     }
 
-    private List<IndexData> getIndexData(PreIndexData data) {
-        if (mConverter == null) {
-            mConverter = new IndexDataConverter(mContext);
-        }
-        return mConverter.convertPreIndexDataToIndexData(data);
-    }
-
-    private List<SiteMapPair> getSiteMapPairs(List<IndexData> indexData,
-            List<Pair<String, String>> siteMapClassNames) {
-        if (mConverter == null) {
-            mConverter = new IndexDataConverter(mContext);
-        }
-        return mConverter.convertSiteMapPairs(indexData, siteMapClassNames);
-    }
-
-    private void insertSiteMapData(SQLiteDatabase database, List<SiteMapPair> siteMapPairs) {
-        if (siteMapPairs == null) {
-            return;
-        }
-        for (SiteMapPair pair : siteMapPairs) {
-            database.replaceOrThrow(IndexDatabaseHelper.Tables.TABLE_SITE_MAP,
-                    null /* nullColumnHack */, pair.toContentValue());
-        }
-    }
-
-    /**
-     * Inserts all of the entries in {@param indexData} into the {@param database}
-     * as Search Data and as part of the Information Hierarchy.
-     */
-    private void insertIndexData(SQLiteDatabase database, List<IndexData> indexData) {
-        ContentValues values;
-
-        for (IndexData dataRow : indexData) {
-            if (TextUtils.isEmpty(dataRow.normalizedTitle)) {
-                continue;
-            }
-
-            values = new ContentValues();
-            values.put(DATA_TITLE, dataRow.updatedTitle);
-            values.put(DATA_TITLE_NORMALIZED, dataRow.normalizedTitle);
-            values.put(DATA_SUMMARY_ON, dataRow.updatedSummaryOn);
-            values.put(DATA_SUMMARY_ON_NORMALIZED, dataRow.normalizedSummaryOn);
-            values.put(DATA_ENTRIES, dataRow.entries);
-            values.put(DATA_KEYWORDS, dataRow.spaceDelimitedKeywords);
-            values.put(DATA_PACKAGE, dataRow.packageName);
-            values.put(DATA_AUTHORITY, dataRow.authority);
-            values.put(CLASS_NAME, dataRow.className);
-            values.put(SCREEN_TITLE, dataRow.screenTitle);
-            values.put(INTENT_ACTION, dataRow.intentAction);
-            values.put(INTENT_TARGET_PACKAGE, dataRow.intentTargetPackage);
-            values.put(INTENT_TARGET_CLASS, dataRow.intentTargetClass);
-            values.put(ICON, dataRow.iconResId);
-            values.put(ENABLED, dataRow.enabled);
-            values.put(DATA_KEY_REF, dataRow.key);
-            values.put(PAYLOAD_TYPE, dataRow.payloadType);
-            values.put(PAYLOAD, dataRow.payload);
-
-            database.replaceOrThrow(TABLE_PREFS_INDEX, null, values);
-        }
-    }
-
     /**
      * Upholds the validity of enabled data for the user.
      * All rows which are enabled but are now flagged with non-indexable keys will become disabled.
      * All rows which are disabled but no longer a non-indexable key will become enabled.
      *
+     * The non-indexable keys are loaded into a temporary table, so that both flips are a single
+     * set-based UPDATE each, instead of one UPDATE per key.
+     *
      * @param database         The database to validate.
      * @param nonIndexableKeys A map between authority and the set of non-indexable keys for it.
+     * @return the number of rows whose enabled state changed.
      */
     @VisibleForTesting
-    void updateDataInDatabase(SQLiteDatabase database,
+    int updateDataInDatabase(SQLiteDatabase database,
             Map<String, Set<String>> nonIndexableKeys) {
-        final String whereEnabled = ENABLED + " = 1";
-        final String whereDisabled = ENABLED + " = 0";
-
-        final Cursor enabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereEnabled, null, null, null, null);
-
-        final ContentValues enabledToDisabledValue = new ContentValues();
-        enabledToDisabledValue.put(ENABLED, 0);
-
-        String authority;
-        // TODO Refactor: Move these two loops into one method.
-        while (enabledResults.moveToNext()) {
-            authority = enabledResults.getString(enabledResults.getColumnIndexOrThrow(
-                    DATA_AUTHORITY));
-            final String key = enabledResults.getString(enabledResults.getColumnIndexOrThrow(
-                    DATA_KEY_REF));
-            final Set<String> authorityKeys = nonIndexableKeys.get(authority);
+        if (nonIndexableKeys.isEmpty()) {
+            return 0;
+        }
+        database.execSQL(CREATE_NON_INDEXABLE_KEYS_TABLE);
+        try {
+            final SQLiteStatement insertKey = database.compileStatement(INSERT_NON_INDEXABLE_KEY);
+            try {
+                for (Map.Entry<String, Set<String>> entry : nonIndexableKeys.entrySet()) {
+                    insertKey.bindString(1, entry.getKey());
+                    for (String key : entry.getValue()) {
+                        if (key == null) {
+                            continue;
+                        }
+                        insertKey.bindString(2, key);
+                        insertKey.executeInsert();
+                    }
+                }
+            } finally {
+                insertKey.close();
+            }
 
             // The indexed item is set to Enabled but is now non-indexable
-            if (authorityKeys != null && authorityKeys.contains(key)) {
-                final String whereClause = getKeyWhereClause(key);
-                database.update(TABLE_PREFS_INDEX, enabledToDisabledValue, whereClause, null);
+            final int disabledCount = executeUpdateDelete(database, DISABLE_NON_INDEXABLE_ROWS,
+                    null /* bindArgs */);
+
+            // The indexed item is set to Disabled but is no longer non-indexable.
+            // We do not enable keys when the authority has no non-indexable keys because it means
+            // the keys came from an unrecognized authority and therefore should not be surfaced
+            // as results.
+            final String[] authorities = nonIndexableKeys.keySet().toArray(new String[0]);
+            final int enabledCount = executeUpdateDelete(database,
+                    buildEnableIndexableRows(authorities.length), authorities);
+
+            if (DEBUG) {
+                Log.d(TAG, "updateDataInDatabase disabled " + disabledCount + " rows, enabled "
+                        + enabledCount + " rows");
             }
+            return disabledCount + enabledCount;
+        } finally {
+            database.execSQL(DROP_NON_INDEXABLE_KEYS_TABLE);
         }
-        enabledResults.close();
-
-        final Cursor disabledResults = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereDisabled, null, null, null, null);
-
-        final ContentValues disabledToEnabledValue = new ContentValues();
-        disabledToEnabledValue.put(ENABLED, 1);
-
-        while (disabledResults.moveToNext()) {
-            authority = disabledResults.getString(disabledResults.getColumnIndexOrThrow(
-                    DATA_AUTHORITY));
-
-            final String key = disabledResults.getString(disabledResults.getColumnIndexOrThrow(
-                    DATA_KEY_REF));
-            final Set<String> authorityKeys = nonIndexableKeys.get(authority);
+    }
 
-            // The indexed item is set to Disabled but is no longer non-indexable.
-            // We do not enable keys when authorityKeys is null because it means the keys came
-            // from an unrecognized authority and therefore should not be surfaced as results.
-            if (authorityKeys != null && !authorityKeys.contains(key)) {
-                final String whereClause = getKeyWhereClause(key);
-                database.update(TABLE_PREFS_INDEX, disabledToEnabledValue, whereClause, null);
+    private static int executeUpdateDelete(SQLiteDatabase database, String sql,
+            String[] bindArgs) {
+        final SQLiteStatement statement = database.compileStatement(sql);
+        try {
+            if (bindArgs != null) {
+                statement.bindAllArgsAsStrings(bindArgs);
             }
+            return statement.executeUpdateDelete();
+        } finally {
+            statement.close();
         }
-        disabledResults.close();
     }
 
-    private String getKeyWhereClause(String key) {
-        return IndexDatabaseHelper.IndexColumns.DATA_KEY_REF + " = \"" + key + "\"";
+    private static String buildEnableIndexableRows(int authorityCount) {
+        final StringBuilder sb = new StringBuilder("UPDATE " + TABLE_PREFS_INDEX
+                + " SET " + ENABLED + " = 1"
+                + " WHERE " + ENABLED + " = 0"
+                + " AND " + DATA_AUTHORITY + " IN (");
+        for (int i = 0; i < authorityCount; i++) {
+            sb.append(i > 0 ? ", ?" : "?");
+        }
+        return sb.append(") AND NOT ").append(NON_INDEXABLE_KEY_EXISTS).toString();
     }
 
     private SQLiteDatabase getWritableDatabase() {
@@ -312,6 +438,82 @@ public class DatabaseIndexingManager {
         }
     }
 
+    /**
+     * Commits the transaction each time the rows of a provider have been written, and reports
+     * the priority tiers which have been committed. Throws {@link OperationCanceledException}
+     * once a provider has been committed if indexing was canceled.
+     */
+    private class ProviderCommitter implements IndexingPipeline.ProviderWrittenListener {
+
+        private final SQLiteDatabase mDatabase;
+        private final Map<String, ResolveInfo> mProviders;
+        private final Set<String> mStaleAuthorities;
+        private final IndexingCheckpoint mCheckpoint;
+        private final Runnable mTierCommittedCallback;
+        private final CancellationSignal mCancellationSignal;
+        private final int[] mRemainingProviders = new int[IndexingPriority.TIER_OTHER + 1];
+        private int mLastCommittedTier = -1;
+
+        public ProviderCommitter(SQLiteDatabase database, Map<String, ResolveInfo> providers,
+                Set<String> staleAuthorities, IndexingCheckpoint checkpoint,
+                Runnable tierCommittedCallback, CancellationSignal cancellationSignal) {
+            mDatabase = database;
+            mProviders = providers;
+            mStaleAuthorities = staleAuthorities;
+            mCheckpoint = checkpoint;
+            mTierCommittedCallback = tierCommittedCallback;
+            mCancellationSignal = cancellationSignal;
+            for (ResolveInfo info : providers.values()) {
+                mRemainingProviders[getIndexingPriority().getTier(info)]++;
+            }
+        }
+
+        @Override
+        public void onProviderWritten(String authority, PreIndexData providerData) {
+            final ResolveInfo info = mProviders.get(authority);
+            if (info == null) {
+                return;
+            }
+            if (!providerData.getFailedAuthorities().contains(authority)) {
+                // Rows of stale authorities are inserted with the correct enabled state, so only
+                // the remaining authorities need their non-indexable keys checked.
+                if (!mStaleAuthorities.contains(authority)) {
+                    updateDataInDatabase(mDatabase, providerData.getNonIndexableKeys());
+                }
+                mCheckpoint.complete(mContext, mDatabase, info);
+            }
+            mDatabase.setTransactionSuccessful();
+            mDatabase.endTransaction();
+            mDatabase.beginTransaction();
+            onProviderCommitted(getIndexingPriority().getTier(info));
+            if (mCancellationSignal != null) {
+                mCancellationSignal.throwIfCanceled();
+            }
+        }
+
+        /**
+         * Providers are committed in the order of their tier, so a tier is complete once all of
+         * its providers, or a provider of a later tier, have been committed. Completing the last
+         * tier is reported by the end of indexing instead.
+         */
+        private void onProviderCommitted(int tier) {
+            mRemainingProviders[tier]--;
+            final int committedTier = mRemainingProviders[tier] == 0 ? tier : tier - 1;
+            if (committedTier <= mLastCommittedTier
+                    || committedTier >= IndexingPriority.TIER_OTHER) {
+                return;
+            }
+            mLastCommittedTier = committedTier;
+            if (DEBUG) {
+                Log.d(TAG, "Committed indexing tier " + committedTier);
+            }
+            IndexDatabaseHelper.setIndexAvailable(mContext);
+            if (mTierCommittedCallback != null) {
+                mTierCommittedCallback.run();
+            }
+        }
+    }
+
     public class IndexingTask extends AsyncTask<Void, Void, Void> {
 
         @VisibleForTesting
@@ -330,10 +532,22 @@ public class DatabaseIndexingManager {
 
         @Override
         protected Void doInBackground(Void... voids) {
-            performIndexing();
+            performIndexing(new Runnable() {
+                @Override
+                public void run() {
+                    publishProgress();
+                }
+            }, null /* cancellationSignal */);
             return null;
         }
 
+        @Override
+        protected void onProgressUpdate(Void... values) {
+            if (mCallback != null) {
+                mCallback.onIndexingProgress();
+            }
+        }
+
         @Override
         protected void onPostExecute(Void aVoid) {
             int indexingTime = (int) (System.currentTimeMillis() - mIndexStartTime);
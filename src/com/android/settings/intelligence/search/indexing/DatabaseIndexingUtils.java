@@ -57,6 +57,21 @@ public class DatabaseIndexingUtils {
         return intent;
     }
 
+    /**
+     * Builds the intent of an indexed search result: a direct intent if the result declares an
+     * intent action, or otherwise an intent that opens the screen of the result.
+     */
+    public static Intent buildSearchResultIntent(Context context, String intentAction,
+            String targetPackage, String targetClass, String className, String key,
+            String screenTitle) {
+        // TODO REFACTOR (b/62807132) With inline results re-add proper intent support
+        if (TextUtils.isEmpty(intentAction)) {
+            // No intent action is set, or the intent action is for a sub-setting.
+            return buildSearchTrampolineIntent(context, className, key, screenTitle);
+        }
+        return buildDirectSearchResultIntent(intentAction, targetPackage, targetClass, key);
+    }
+
     public static Intent buildDirectSearchResultIntent(String action, String targetPackage,
             String targetClass, String key) {
         final Intent intent = new Intent(action).putExtra(EXTRA_FRAGMENT_ARG_KEY, key);
@@ -17,16 +17,12 @@
 
 package com.android.settings.intelligence.search.indexing;
 
-import android.content.Context;
-import android.content.Intent;
-import android.text.TextUtils;
-
 import com.android.settings.intelligence.search.ResultPayload;
-import com.android.settings.intelligence.search.ResultPayloadUtils;
 
-import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Locale;
-import java.util.regex.Pattern;
+import java.util.Set;
 
 /**
  * Data class representing a single row in the Setting Search results database.
@@ -55,37 +51,64 @@ public class IndexData {
     public final String intentTargetClass;
     public final boolean enabled;
     public final String key;
+    /**
+     * The payload is not stored, its Intent is built from the intent and class columns when the
+     * result is clicked.
+     */
     public final int payloadType;
-    public final byte[] payload;
+    /**
+     * Static component of the rank of the row, see {@link #computeStaticRank(String, String)}.
+     */
+    public final int staticRank;
+    /**
+     * Stable digest over all of the stored fields above but {@link #enabled}, so rows which did
+     * not change between two indexing runs do not have to be rewritten. The enabled state is
+     * flipped in place when non-indexable keys change, so it is reconciled separately.
+     */
+    public final long contentDigest;
 
-    private static final String NON_BREAKING_HYPHEN = "\u2011";
-    private static final String EMPTY = "";
-    private static final String HYPHEN = "-";
-    private static final String SPACE = " ";
-    // Regex matching a comma, and any number of subsequent white spaces.
-    private static final String LIST_DELIMITERS = "[,]\\s*";
+    // 64 bit FNV-1a parameters.
+    private static final long DIGEST_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long DIGEST_PRIME = 0x100000001b3L;
 
-    private static final Pattern REMOVE_DIACRITICALS_PATTERN
-            = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+    /**
+     * Flag of {@link #staticRank} set when the title is long, which adds 1 to the rank.
+     */
+    public static final int STATIC_RANK_LONG_TITLE = 1;
+    /**
+     * Flag of {@link #staticRank} set when the result is prioritized, which makes it TOP_RANK
+     * when the query matches the first word of its title.
+     */
+    public static final int STATIC_RANK_PRIORITIZED = 2;
+
+    private static final int LONG_TITLE_LENGTH = 20;
+
+    private static final String[] whiteList = {
+            "main_toggle_wifi",
+            "main_toggle_bluetooth",
+            "main_toggle_bluetooth_obsolete",
+            "toggle_airplane",
+            "tether_settings",
+            "battery_saver",
+            "toggle_nfc",
+            "restrict_background",
+            "data_usage_enable",
+            "button_roaming_key",
+    };
+    private static final Set<String> prioritySettings = new HashSet<>(Arrays.asList(whiteList));
 
     private IndexData(Builder builder) {
         locale = Locale.getDefault().toString();
-        updatedTitle = normalizeHyphen(builder.mTitle);
-        updatedSummaryOn = normalizeHyphen(builder.mSummaryOn);
-        if (Locale.JAPAN.toString().equalsIgnoreCase(locale)) {
-            // Special case for JP. Convert charset to the same type for indexing purpose.
-            normalizedTitle = normalizeJapaneseString(builder.mTitle);
-            normalizedSummaryOn = normalizeJapaneseString(builder.mSummaryOn);
-        } else {
-            normalizedTitle = normalizeString(builder.mTitle);
-            normalizedSummaryOn = normalizeString(builder.mSummaryOn);
-        }
+        updatedTitle = TextNormalizer.normalizeHyphen(builder.mTitle);
+        updatedSummaryOn = TextNormalizer.normalizeHyphen(builder.mSummaryOn);
+        normalizedTitle = TextNormalizer.normalizeForIndex(builder.mTitle);
+        normalizedSummaryOn = TextNormalizer.normalizeForIndex(builder.mSummaryOn);
         entries = builder.mEntries;
         className = builder.mClassName;
         childClassName = builder.mChildClassName;
         screenTitle = builder.mScreenTitle;
         iconResId = builder.mIconResId;
-        spaceDelimitedKeywords = normalizeKeywords(builder.mKeywords);
+        spaceDelimitedKeywords = TextNormalizer.normalizeKeywords(builder.mKeywords);
         intentAction = builder.mIntentAction;
         packageName = builder.mPackageName;
         authority = builder.mAuthority;
@@ -94,59 +117,79 @@ public class IndexData {
         enabled = builder.mEnabled;
         key = builder.mKey;
         payloadType = builder.mPayloadType;
-        payload = builder.mPayload != null ? ResultPayloadUtils.marshall(builder.mPayload)
-                : null;
+        staticRank = computeStaticRank(key, updatedTitle);
+        contentDigest = computeContentDigest();
     }
 
-    @Override
-    public String toString() {
-        return new StringBuilder(updatedTitle)
-                .append(": ")
-                .append(updatedSummaryOn)
-                .toString();
+    private long computeContentDigest() {
+        long digest = DIGEST_OFFSET_BASIS;
+        digest = digest(digest, updatedTitle);
+        digest = digest(digest, normalizedTitle);
+        digest = digest(digest, updatedSummaryOn);
+        digest = digest(digest, normalizedSummaryOn);
+        digest = digest(digest, entries);
+        digest = digest(digest, spaceDelimitedKeywords);
+        digest = digest(digest, packageName);
+        digest = digest(digest, authority);
+        digest = digest(digest, className);
+        digest = digest(digest, screenTitle);
+        digest = digest(digest, intentAction);
+        digest = digest(digest, intentTargetPackage);
+        digest = digest(digest, intentTargetClass);
+        digest = digest(digest, iconResId);
+        digest = digest(digest, key);
+        digest = digest(digest, payloadType);
+        digest = digest(digest, staticRank);
+        return digest;
     }
 
     /**
-     * In the list of keywords, replace the comma and all subsequent whitespace with a single space.
+     * @return the part of the rank of a result which does not depend on the query, as flags:
+     * {@link #STATIC_RANK_PRIORITIZED} if the result with {@param key} is prioritized, and
+     * {@link #STATIC_RANK_LONG_TITLE} if {@param title} is longer than 20.
      */
-    public static String normalizeKeywords(String input) {
-        return (input != null) ? input.replaceAll(LIST_DELIMITERS, SPACE) : EMPTY;
-    }
-
-    /**
-     * @return {@param input} where all non-standard hyphens are replaced by normal hyphens.
-     */
-    public static String normalizeHyphen(String input) {
-        return (input != null) ? input.replaceAll(NON_BREAKING_HYPHEN, HYPHEN) : EMPTY;
+    public static int computeStaticRank(String key, String title) {
+        int staticRank = 0;
+        if (prioritySettings.contains(key)) {
+            staticRank |= STATIC_RANK_PRIORITIZED;
+        }
+        if (title != null && title.length() > LONG_TITLE_LENGTH) {
+            staticRank |= STATIC_RANK_LONG_TITLE;
+        }
+        return staticRank;
     }
 
     /**
-     * @return {@param input} with all hyphens removed, and all letters lower case.
+     * Adds {@param value} to {@param digest}, prefixed by its length so that neither adjacent
+     * fields nor null and empty values can be confused.
      */
-    public static String normalizeString(String input) {
-        final String normalizedHypen = normalizeHyphen(input);
-        final String nohyphen = (input != null) ? normalizedHypen.replaceAll(HYPHEN, EMPTY) : EMPTY;
-        final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFD);
-
-        return REMOVE_DIACRITICALS_PATTERN.matcher(normalized).replaceAll("").toLowerCase();
+    private static long digest(long digest, String value) {
+        if (value == null) {
+            return digest(digest, -1);
+        }
+        final int length = value.length();
+        digest = digest(digest, length);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            digest = (digest ^ (c & 0xff)) * DIGEST_PRIME;
+            digest = (digest ^ (c >>> 8)) * DIGEST_PRIME;
+        }
+        return digest;
     }
 
-    public static String normalizeJapaneseString(String input) {
-        final String nohyphen = (input != null) ? input.replaceAll(HYPHEN, EMPTY) : EMPTY;
-        final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFKD);
-        final StringBuffer sb = new StringBuffer();
-        final int length = normalized.length();
-        for (int i = 0; i < length; i++) {
-            char c = normalized.charAt(i);
-            // Convert Hiragana to full-width Katakana
-            if (c >= '\u3041' && c <= '\u3096') {
-                sb.append((char) (c - '\u3041' + '\u30A1'));
-            } else {
-                sb.append(c);
-            }
+    private static long digest(long digest, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            digest = (digest ^ ((value >>> shift) & 0xff)) * DIGEST_PRIME;
         }
+        return digest;
+    }
 
-        return REMOVE_DIACRITICALS_PATTERN.matcher(sb.toString()).replaceAll("").toLowerCase();
+    @Override
+    public String toString() {
+        return new StringBuilder(updatedTitle)
+                .append(": ")
+                .append(updatedSummaryOn)
+                .toString();
     }
 
     public static class Builder {
@@ -166,8 +209,7 @@ public class IndexData {
         private boolean mEnabled;
         private String mKey;
         @ResultPayload.PayloadType
-        private int mPayloadType;
-        private ResultPayload mPayload;
+        private int mPayloadType = ResultPayload.PayloadType.INTENT;
 
         @Override
         public String toString() {
@@ -256,60 +298,7 @@ public class IndexData {
             return this;
         }
 
-        public Builder setPayload(ResultPayload payload) {
-            mPayload = payload;
-
-            if (mPayload != null) {
-                setPayloadType(mPayload.getType());
-            }
-            return this;
-        }
-
-        /**
-         * Payload type is added when a Payload is added to the Builder in {setPayload}
-         *
-         * @param payloadType PayloadType
-         * @return The Builder
-         */
-        private Builder setPayloadType(@ResultPayload.PayloadType int payloadType) {
-            mPayloadType = payloadType;
-            return this;
-        }
-
-        /**
-         * Adds intent to inline payloads, or creates an Intent Payload as a fallback if the
-         * payload is null.
-         */
-        private void setIntent(Context context) {
-            if (mPayload != null) {
-                return;
-            }
-            final Intent intent = buildIntent(context);
-            mPayload = new ResultPayload(intent);
-            mPayloadType = ResultPayload.PayloadType.INTENT;
-        }
-
-        /**
-         * Adds Intent payload to builder.
-         */
-        private Intent buildIntent(Context context) {
-            final Intent intent;
-
-            // TODO REFACTOR (b/62807132) With inline results re-add proper intent support
-            boolean isEmptyIntentAction = TextUtils.isEmpty(mIntentAction);
-            if (isEmptyIntentAction) {
-                // No intent action is set, or the intent action is for a sub-setting.
-                intent = DatabaseIndexingUtils.buildSearchTrampolineIntent(context, mClassName,
-                        mKey, mScreenTitle);
-            } else {
-                intent = DatabaseIndexingUtils.buildDirectSearchResultIntent(mIntentAction,
-                        mIntentTargetPackage, mIntentTargetClass, mKey);
-            }
-            return intent;
-        }
-
-        public IndexData build(Context context) {
-            setIntent(context);
+        public IndexData build() {
             return new IndexData(this);
         }
     }
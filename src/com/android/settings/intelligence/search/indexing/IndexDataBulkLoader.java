@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.SiteMapColumns;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_SITE_MAP;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.LongSparseArray;
+import android.util.Pair;
+
+import com.android.settings.intelligence.search.sitemap.SiteMapManager;
+import com.android.settings.intelligence.search.sitemap.SiteMapPair;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk loader writing {@link IndexData} and {@link SiteMapPair} rows into the search database.
+ *
+ * The insert statements are compiled once and re-used for every row, and each column is bound
+ * by position, so no {@link android.content.ContentValues} or SQL string is built per row.
+ * The loader does not manage transactions; it must be used inside the caller's transaction and
+ * closed when the caller is done writing.
+ */
+public class IndexDataBulkLoader implements Closeable {
+
+    private static final String[] INDEX_COLUMNS = {
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_ENTRIES,
+            IndexColumns.DATA_KEYWORDS,
+            IndexColumns.DATA_PACKAGE,
+            IndexColumns.DATA_AUTHORITY,
+            IndexColumns.CLASS_NAME,
+            IndexColumns.SCREEN_TITLE,
+            IndexColumns.INTENT_ACTION,
+            IndexColumns.INTENT_TARGET_PACKAGE,
+            IndexColumns.INTENT_TARGET_CLASS,
+            IndexColumns.ICON,
+            IndexColumns.ENABLED,
+            IndexColumns.DATA_KEY_REF,
+            IndexColumns.PAYLOAD_TYPE,
+            IndexColumns.CONTENT_DIGEST,
+            IndexColumns.STATIC_RANK,
+    };
+
+    private static final String[] SITE_MAP_COLUMNS = {
+            SiteMapColumns.DOCID,
+            SiteMapColumns.PARENT_CLASS,
+            SiteMapColumns.PARENT_TITLE,
+            SiteMapColumns.CHILD_CLASS,
+            SiteMapColumns.CHILD_TITLE,
+    };
+
+    private static final String INSERT_INDEX_DATA =
+            buildInsertOrReplace(TABLE_PREFS_INDEX, INDEX_COLUMNS);
+
+    private static final String[] DIGEST_COLUMNS = {
+            SiteMapColumns.DOCID,
+            IndexColumns.CONTENT_DIGEST,
+            IndexColumns.ENABLED,
+    };
+
+    private static final String UPDATE_INDEX_DATA_ENABLED =
+            "UPDATE " + TABLE_PREFS_INDEX + " SET " + IndexColumns.ENABLED + " = ?"
+                    + " WHERE " + SiteMapColumns.DOCID + " = ?";
+
+    private static final String DELETE_INDEX_DATA_ROW =
+            "DELETE FROM " + TABLE_PREFS_INDEX + " WHERE " + SiteMapColumns.DOCID + " = ?";
+
+    private static final String[] BREADCRUMBS_COLUMNS = {
+            SiteMapColumns.DOCID,
+            IndexColumns.CLASS_NAME,
+            IndexColumns.SCREEN_TITLE,
+            IndexColumns.BREADCRUMBS,
+    };
+
+    private static final String UPDATE_BREADCRUMBS =
+            "UPDATE " + TABLE_PREFS_INDEX + " SET " + IndexColumns.BREADCRUMBS + " = ?"
+                    + " WHERE " + SiteMapColumns.DOCID + " = ?";
+
+    private static final String INSERT_SITE_MAP =
+            buildInsertOrReplace(TABLE_SITE_MAP, SITE_MAP_COLUMNS);
+
+    private final SQLiteDatabase mDatabase;
+
+    private SQLiteStatement mIndexDataStatement;
+    private SQLiteStatement mSiteMapStatement;
+    private SQLiteStatement mDeleteRowStatement;
+    private SQLiteStatement mUpdateEnabledStatement;
+    private int mInsertedIndexDataCount;
+
+    public IndexDataBulkLoader(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Inserts {@param dataRow}, unless it does not have a title.
+     */
+    public void insertIndexData(IndexData dataRow) {
+        if (TextUtils.isEmpty(dataRow.normalizedTitle)) {
+            return;
+        }
+        if (mIndexDataStatement == null) {
+            mIndexDataStatement = mDatabase.compileStatement(INSERT_INDEX_DATA);
+        }
+        final SQLiteStatement statement = mIndexDataStatement;
+        int index = 1;
+        bindString(statement, index++, dataRow.updatedTitle);
+        bindString(statement, index++, dataRow.normalizedTitle);
+        bindString(statement, index++, dataRow.updatedSummaryOn);
+        bindString(statement, index++, dataRow.normalizedSummaryOn);
+        bindString(statement, index++, dataRow.entries);
+        bindString(statement, index++, dataRow.spaceDelimitedKeywords);
+        bindString(statement, index++, dataRow.packageName);
+        bindString(statement, index++, dataRow.authority);
+        bindString(statement, index++, dataRow.className);
+        bindString(statement, index++, dataRow.screenTitle);
+        bindString(statement, index++, dataRow.intentAction);
+        bindString(statement, index++, dataRow.intentTargetPackage);
+        bindString(statement, index++, dataRow.intentTargetClass);
+        statement.bindLong(index++, dataRow.iconResId);
+        statement.bindLong(index++, dataRow.enabled ? 1 : 0);
+        bindString(statement, index++, dataRow.key);
+        statement.bindLong(index++, dataRow.payloadType);
+        statement.bindLong(index++, dataRow.contentDigest);
+        statement.bindLong(index, dataRow.staticRank);
+        statement.executeInsert();
+        statement.clearBindings();
+        mInsertedIndexDataCount++;
+    }
+
+    /**
+     * Inserts all of the {@param siteMapPairs}, replacing existing pairs with the same docid.
+     */
+    public void insertSiteMapPairs(List<SiteMapPair> siteMapPairs) {
+        if (siteMapPairs == null || siteMapPairs.isEmpty()) {
+            return;
+        }
+        if (mSiteMapStatement == null) {
+            mSiteMapStatement = mDatabase.compileStatement(INSERT_SITE_MAP);
+        }
+        final SQLiteStatement statement = mSiteMapStatement;
+        for (SiteMapPair pair : siteMapPairs) {
+            statement.bindLong(1, pair.hashCode());
+            bindString(statement, 2, pair.getParentClass());
+            bindString(statement, 3, pair.getParentTitle());
+            bindString(statement, 4, pair.getChildClass());
+            bindString(statement, 5, pair.getChildTitle());
+            statement.executeInsert();
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * @return the screen title of an indexed row of {@param className}, or null if there is none.
+     */
+    public String getScreenTitle(String className) {
+        final Cursor cursor = mDatabase.query(TABLE_PREFS_INDEX,
+                new String[]{IndexColumns.SCREEN_TITLE}, IndexColumns.CLASS_NAME + " = ?",
+                new String[]{className}, null /* groupBy */, null /* having */,
+                null /* orderBy */, "1" /* limit */);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes all site map pairs.
+     */
+    public void deleteSiteMapPairs() {
+        mDatabase.delete(TABLE_SITE_MAP, null /* whereClause */, null /* whereArgs */);
+    }
+
+    /**
+     * Stores the breadcrumbs of every indexed screen, built from the site map pairs of the
+     * database, so queries do not build them per result. The rows are read in a single pass, the
+     * breadcrumbs of each screen are built once, and only rows whose breadcrumbs changed are
+     * written.
+     */
+    public void updateBreadcrumbs() {
+        final SiteMapManager siteMapManager = new SiteMapManager();
+        siteMapManager.init(mDatabase);
+        final SQLiteStatement statement = mDatabase.compileStatement(UPDATE_BREADCRUMBS);
+        try {
+            updateBreadcrumbs(siteMapManager, new HashMap<Pair<String, String>, String>(),
+                    statement, null /* selection */, null /* selectionArgs */);
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Same as {@link #updateBreadcrumbs()}, but only for the rows of {@param authorities}, and
+     * the rows of {@param classNames} and of the screens below them in the site map. These are
+     * the only rows whose breadcrumbs can change when only {@param authorities} were rewritten
+     * and only site map pairs whose child is one of {@param classNames} were written.
+     */
+    public void updateBreadcrumbs(Collection<String> authorities, Collection<String> classNames) {
+        final SiteMapManager siteMapManager = new SiteMapManager();
+        siteMapManager.init(mDatabase);
+        final Map<Pair<String, String>, String> screenBreadcrumbs = new HashMap<>();
+        final SQLiteStatement statement = mDatabase.compileStatement(UPDATE_BREADCRUMBS);
+        try {
+            for (String authority : authorities) {
+                updateBreadcrumbs(siteMapManager, screenBreadcrumbs, statement,
+                        IndexColumns.DATA_AUTHORITY + " = ?", new String[]{authority});
+            }
+            for (String className : siteMapManager.getSubtreeClasses(classNames)) {
+                if (className == null) {
+                    continue;
+                }
+                updateBreadcrumbs(siteMapManager, screenBreadcrumbs, statement,
+                        IndexColumns.CLASS_NAME + " = ?", new String[]{className});
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void updateBreadcrumbs(SiteMapManager siteMapManager,
+            Map<Pair<String, String>, String> screenBreadcrumbs, SQLiteStatement statement,
+            String selection, String[] selectionArgs) {
+        final Cursor cursor = mDatabase.query(TABLE_PREFS_INDEX, BREADCRUMBS_COLUMNS,
+                selection, selectionArgs, null /* groupBy */, null /* having */,
+                null /* orderBy */);
+        try {
+            while (cursor.moveToNext()) {
+                final String className = cursor.getString(1);
+                final String screenTitle = cursor.getString(2);
+                final Pair<String, String> screen = Pair.create(className, screenTitle);
+                String breadcrumbs = screenBreadcrumbs.get(screen);
+                if (breadcrumbs == null) {
+                    breadcrumbs = SiteMapManager.serializeBreadcrumbs(
+                            siteMapManager.buildBreadCrumb(className, screenTitle));
+                    screenBreadcrumbs.put(screen, breadcrumbs);
+                }
+                if (TextUtils.equals(breadcrumbs, cursor.getString(3))) {
+                    continue;
+                }
+                statement.bindString(1, breadcrumbs);
+                statement.bindLong(2, cursor.getLong(0));
+                statement.executeUpdateDelete();
+                statement.clearBindings();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes all rows of {@param authority}.
+     *
+     * @return the number of deleted rows.
+     */
+    public int deleteIndexData(String authority) {
+        return mDatabase.delete(TABLE_PREFS_INDEX, IndexColumns.DATA_AUTHORITY + " = ?",
+                new String[]{authority});
+    }
+
+    /**
+     * @return all rows of {@param authority}, keyed by their {@link IndexData#contentDigest}.
+     * Rows with identical content share a key.
+     */
+    public LongSparseArray<List<IndexedRow>> getIndexDataDigests(String authority) {
+        final LongSparseArray<List<IndexedRow>> digests = new LongSparseArray<>();
+        final Cursor cursor = mDatabase.query(TABLE_PREFS_INDEX, DIGEST_COLUMNS,
+                IndexColumns.DATA_AUTHORITY + " = ?", new String[]{authority},
+                null /* groupBy */, null /* having */, null /* orderBy */);
+        try {
+            while (cursor.moveToNext()) {
+                final long digest = cursor.getLong(1);
+                List<IndexedRow> rows = digests.get(digest);
+                if (rows == null) {
+                    rows = new ArrayList<>(1);
+                    digests.put(digest, rows);
+                }
+                rows.add(new IndexedRow(cursor.getLong(0), cursor.getInt(2) != 0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return digests;
+    }
+
+    /**
+     * Deletes the single row with {@param docid}.
+     */
+    public void deleteIndexDataRow(long docid) {
+        if (mDeleteRowStatement == null) {
+            mDeleteRowStatement = mDatabase.compileStatement(DELETE_INDEX_DATA_ROW);
+        }
+        mDeleteRowStatement.bindLong(1, docid);
+        mDeleteRowStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Sets the enabled state of the single row with {@param docid}.
+     */
+    public void updateIndexDataEnabled(long docid, boolean enabled) {
+        if (mUpdateEnabledStatement == null) {
+            mUpdateEnabledStatement = mDatabase.compileStatement(UPDATE_INDEX_DATA_ENABLED);
+        }
+        mUpdateEnabledStatement.bindLong(1, enabled ? 1 : 0);
+        mUpdateEnabledStatement.bindLong(2, docid);
+        mUpdateEnabledStatement.executeUpdateDelete();
+    }
+
+    /**
+     * @return the number of {@link IndexData} rows inserted by this loader.
+     */
+    public int getInsertedIndexDataCount() {
+        return mInsertedIndexDataCount;
+    }
+
+    @Override
+    public void close() {
+        if (mIndexDataStatement != null) {
+            mIndexDataStatement.close();
+            mIndexDataStatement = null;
+        }
+        if (mSiteMapStatement != null) {
+            mSiteMapStatement.close();
+            mSiteMapStatement = null;
+        }
+        if (mDeleteRowStatement != null) {
+            mDeleteRowStatement.close();
+            mDeleteRowStatement = null;
+        }
+        if (mUpdateEnabledStatement != null) {
+            mUpdateEnabledStatement.close();
+            mUpdateEnabledStatement = null;
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static String buildInsertOrReplace(String table, String[] columns) {
+        final StringBuilder sb = new StringBuilder("INSERT OR REPLACE INTO ")
+                .append(table)
+                .append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(columns[i]);
+        }
+        sb.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(i > 0 ? ", ?" : "?");
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * A row already in the search database.
+     */
+    public static class IndexedRow {
+
+        public final long docid;
+        public final boolean enabled;
+
+        public IndexedRow(long docid, boolean enabled) {
+            this.docid = docid;
+            this.enabled = enabled;
+        }
+    }
+}
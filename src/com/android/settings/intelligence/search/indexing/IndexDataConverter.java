@@ -22,7 +22,6 @@ import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.provider.SearchIndexableData;
 import android.provider.SearchIndexableResource;
-import androidx.annotation.DrawableRes;
 import androidx.annotation.Nullable;
 import androidx.collection.ArraySet;
 import android.text.TextUtils;
@@ -31,7 +30,6 @@ import android.util.Log;
 import android.util.Pair;
 import android.util.Xml;
 
-import com.android.settings.intelligence.search.ResultPayload;
 import com.android.settings.intelligence.search.SearchFeatureProvider;
 import com.android.settings.intelligence.search.SearchIndexableRaw;
 import com.android.settings.intelligence.search.sitemap.SiteMapPair;
@@ -42,10 +40,13 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Helper class to convert {@link PreIndexData} to {@link IndexData}.
@@ -59,95 +60,184 @@ public class IndexDataConverter {
     private static final String NODE_NAME_LIST_PREFERENCE = "ListPreference";
     private static final List<String> SKIP_NODES = Arrays.asList("intent", "extra");
 
+    /**
+     * Maximum number of {@link SearchIndexableData} converted by a single task before it is
+     * split in two.
+     */
+    private static final int CONVERSION_BATCH_SIZE = 4;
+
     private final Context mContext;
+    private final ParsedScreenCache mScreenCache;
+
+    private ForkJoinPool mForkJoinPool;
+
+    private volatile ResourceValueCache mResourceValueCache;
 
     public IndexDataConverter(Context context) {
         mContext = context;
+        mScreenCache = new ParsedScreenCache(context);
     }
 
     /**
-     * Return the collection of {@param preIndexData} converted into {@link IndexData}.
-     *
-     * @param preIndexData a collection of {@link SearchIndexableResource},
-     *                     {@link SearchIndexableRaw} and non-indexable keys.
+     * Starts memoizing the resource values and package info looked up during conversion. Both
+     * may change between indexing runs, so they are only kept until {@link #endIndexingRun()}.
      */
-    public List<IndexData> convertPreIndexDataToIndexData(PreIndexData preIndexData) {
-        final long startConversion = System.currentTimeMillis();
-        final Map<String, List<SearchIndexableData>> indexableDataMap =
-                preIndexData.getDataToUpdate();
-        final Map<String, Set<String>> nonIndexableKeys = preIndexData.getNonIndexableKeys();
-        final List<IndexData> indexData = new ArrayList<>();
+    public void beginIndexingRun() {
+        mResourceValueCache = new ResourceValueCache();
+        mScreenCache.beginIndexingRun();
+    }
 
-        for (Map.Entry<String, List<SearchIndexableData>> entry : indexableDataMap.entrySet()) {
-            final String authority = entry.getKey();
-            final List<SearchIndexableData> indexableData = entry.getValue();
-
-            for (SearchIndexableData data : indexableData) {
-                if (data instanceof SearchIndexableRaw) {
-                    final SearchIndexableRaw rawData = (SearchIndexableRaw) data;
-                    final Set<String> rawNonIndexableKeys = nonIndexableKeys.get(authority);
-                    final IndexData convertedRaw = convertRaw(mContext, authority, rawData,
-                            rawNonIndexableKeys);
-                    if (convertedRaw != null) {
-                        indexData.add(convertedRaw);
-                    }
-                } else if (data instanceof SearchIndexableResource) {
-                    final SearchIndexableResource sir = (SearchIndexableResource) data;
-                    final Set<String> resourceNonIndexableKeys =
-                            getNonIndexableKeysForResource(nonIndexableKeys, authority);
-                    final List<IndexData> resourceData = convertResource(sir, authority,
-                            resourceNonIndexableKeys);
-                    indexData.addAll(resourceData);
-                }
-            }
+    /**
+     * Drops the resource values and package info memoized since {@link #beginIndexingRun()}.
+     */
+    public void endIndexingRun() {
+        final ResourceValueCache cache = mResourceValueCache;
+        mResourceValueCache = null;
+        mScreenCache.endIndexingRun();
+        if (SearchFeatureProvider.DEBUG && cache != null) {
+            Log.d(TAG, "Resource value cache hits: " + cache.getHitCount() + ", misses: "
+                    + cache.getMissCount());
         }
+    }
 
-        final long endConversion = System.currentTimeMillis();
-        Log.d(TAG, "Converting pre-index data to index data took: "
-                + (endConversion - startConversion));
+    /**
+     * Return the conversion of a chunk of the {@link SearchIndexableData} of {@param authority}
+     * into {@link IndexData}, in the order of {@param indexableData}.
+     */
+    public List<IndexData> convertIndexableData(String authority,
+            List<SearchIndexableData> indexableData, Map<String, Set<String>> nonIndexableKeys) {
+        final List<Pair<String, SearchIndexableData>> authorityData = new ArrayList<>();
+        for (SearchIndexableData data : indexableData) {
+            authorityData.add(Pair.create(authority, data));
+        }
+        return convertIndexableData(authorityData, nonIndexableKeys);
+    }
 
+    private List<IndexData> convertIndexableData(
+            List<Pair<String, SearchIndexableData>> indexableData,
+            Map<String, Set<String>> nonIndexableKeys) {
+        return getForkJoinPool().invoke(new ConversionTask(indexableData, nonIndexableKeys,
+                0 /* start */, indexableData.size()));
+    }
+
+    /**
+     * The pool is kept for the lifetime of the converter; its idle worker threads terminate on
+     * their own between indexing runs.
+     */
+    private synchronized ForkJoinPool getForkJoinPool() {
+        if (mForkJoinPool == null) {
+            mForkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return mForkJoinPool;
+    }
+
+    /**
+     * Return the conversion of a single {@link SearchIndexableRaw} or
+     * {@link SearchIndexableResource} of {@param authority} to {@link IndexData}.
+     */
+    private List<IndexData> convertIndexableData(String authority, SearchIndexableData data,
+            Map<String, Set<String>> nonIndexableKeys) {
+        final List<IndexData> indexData = new ArrayList<>();
+        if (data instanceof SearchIndexableRaw) {
+            final SearchIndexableRaw rawData = (SearchIndexableRaw) data;
+            final Set<String> rawNonIndexableKeys = nonIndexableKeys.get(authority);
+            final IndexData convertedRaw = convertRaw(mContext, authority, rawData,
+                    rawNonIndexableKeys);
+            if (convertedRaw != null) {
+                indexData.add(convertedRaw);
+            }
+        } else if (data instanceof SearchIndexableResource) {
+            final SearchIndexableResource sir = (SearchIndexableResource) data;
+            final Set<String> resourceNonIndexableKeys =
+                    getNonIndexableKeysForResource(nonIndexableKeys, authority);
+            final List<IndexData> resourceData = convertResource(sir, authority,
+                    resourceNonIndexableKeys);
+            indexData.addAll(resourceData);
+        }
         return indexData;
     }
 
     /**
-     * Returns a full list of site map pairs based on metadata from all data sources.
+     * Builds the site map pairs of converted {@link IndexData} incrementally, so it does not have
+     * to be kept until all of it is available.
      *
      * The content schema follows {@link IndexDatabaseHelper.Tables#TABLE_SITE_MAP}
      */
-    public List<SiteMapPair> convertSiteMapPairs(List<IndexData> indexData,
-            List<Pair<String, String>> siteMapClassNames) {
-        final List<SiteMapPair> pairs = new ArrayList<>();
-        if (indexData == null) {
-            return pairs;
-        }
-        // Step 1: loop indexData and build all static site map pairs.
-        final Map<String, String> classToTitleMap = new TreeMap<>();
-        for (IndexData row : indexData) {
-            if (TextUtils.isEmpty(row.className)) {
-                continue;
+    public static class SiteMapPairsBuilder {
+
+        private final Map<String, String> mClassToTitleMap = new TreeMap<>();
+        private final List<SiteMapPair> mPairs = new ArrayList<>();
+        private final List<Pair<String, String>> mPendingClassNames = new ArrayList<>();
+
+        /**
+         * Adds the static site map pairs of {@param indexData}.
+         */
+        public void addIndexData(List<IndexData> indexData) {
+            // Step 1: loop indexData and build all static site map pairs.
+            for (IndexData row : indexData) {
+                if (TextUtils.isEmpty(row.className)) {
+                    continue;
+                }
+                // Build a map of [class, title] for the next step.
+                mClassToTitleMap.put(row.className, row.screenTitle);
+                if (!TextUtils.isEmpty(row.childClassName)) {
+                    mPairs.add(new SiteMapPair(row.className, row.screenTitle,
+                            row.childClassName, row.updatedTitle));
+                }
             }
-            // Build a map of [class, title] for the next step.
-            classToTitleMap.put(row.className, row.screenTitle);
-            if (!TextUtils.isEmpty(row.childClassName)) {
-                pairs.add(new SiteMapPair(row.className, row.screenTitle,
-                        row.childClassName, row.updatedTitle));
+        }
+
+        /**
+         * @return true if the screen title of {@param className} is known.
+         */
+        public boolean hasScreenTitle(String className) {
+            return mClassToTitleMap.containsKey(className);
+        }
+
+        /**
+         * Adds the screen title of {@param className}, e.g. of a screen indexed by an earlier
+         * run, so dynamic pairs can refer to it.
+         */
+        public void addScreenTitle(String className, String screenTitle) {
+            mClassToTitleMap.put(className, screenTitle);
+        }
+
+        /**
+         * Returns the site map pairs of the index data added since the last call, extended by
+         * the dynamic {@param siteMapClassNames}. Dynamic pairs whose screens are not known yet
+         * are kept and built by a later call, once their index data has been added.
+         */
+        public List<SiteMapPair> build(List<Pair<String, String>> siteMapClassNames) {
+            final List<SiteMapPair> pairs = new ArrayList<>(mPairs);
+            mPairs.clear();
+            mPendingClassNames.addAll(siteMapClassNames);
+            // Step 2: Extend the sitemap pairs by adding dynamic pairs provided by
+            // SearchIndexableProvider. The provider only tells us class name so we need to finish
+            // the mapping by looking up display title for each class.
+            final Iterator<Pair<String, String>> iterator = mPendingClassNames.iterator();
+            while (iterator.hasNext()) {
+                final Pair<String, String> pair = iterator.next();
+                final String parentName = mClassToTitleMap.get(pair.first);
+                final String childName = mClassToTitleMap.get(pair.second);
+                if (!TextUtils.isEmpty(parentName) && !TextUtils.isEmpty(childName)) {
+                    pairs.add(new SiteMapPair(pair.first, parentName, pair.second, childName));
+                    iterator.remove();
+                }
             }
+            // Done
+            return pairs;
         }
-        // Step 2: Extend the sitemap pairs by adding dynamic pairs provided by
-        // SearchIndexableProvider. The provider only tells us class name so we need to finish
-        // the mapping by looking up display title for each class.
-        for (Pair<String, String> pair : siteMapClassNames) {
-            final String parentName = classToTitleMap.get(pair.first);
-            final String childName = classToTitleMap.get(pair.second);
-            if (TextUtils.isEmpty(parentName) || TextUtils.isEmpty(childName)) {
-                Log.w(TAG, "Cannot build sitemap pair for incomplete names "
-                        + pair + parentName + childName);
-            } else {
-                pairs.add(new SiteMapPair(pair.first, parentName, pair.second, childName));
+
+        /**
+         * Logs the dynamic pairs which could not be built, once all index data has been added.
+         */
+        public void finish() {
+            for (Pair<String, String> pair : mPendingClassNames) {
+                Log.w(TAG, "Cannot build sitemap pair for incomplete names " + pair
+                        + mClassToTitleMap.get(pair.first) + mClassToTitleMap.get(pair.second));
             }
+            mPendingClassNames.clear();
         }
-        // Done
-        return pairs;
     }
 
     /**
@@ -181,22 +271,106 @@ public class IndexDataConverter {
                 .setAuthority(authority)
                 .setKey(raw.key);
 
-        return builder.build(context);
+        return builder.build();
     }
 
     /**
      * Return the conversion of the {@link SearchIndexableResource} to {@link IndexData}.
      * Each of the elements in the xml layout attribute of {@param sir} is a candidate to be
-     * converted (including the header element).
+     * converted (including the header element). The parsed elements are taken from the
+     * {@link ParsedScreenCache} when the screen has been parsed before.
      *
      * TODO (b/33577327) simplify this method.
      */
     private List<IndexData> convertResource(SearchIndexableResource sir, String authority,
             Set<String> nonIndexableKeys) {
+        final ParsedScreenCache.Key cacheKey =
+                mScreenCache.getKey(sir.context, sir.packageName, sir.xmlResId);
+        List<ParsedScreenCache.PreferenceRecord> records = mScreenCache.get(cacheKey);
+        boolean isComplete = true;
+        if (records == null) {
+            records = new ArrayList<>();
+            isComplete = parseResource(sir, records);
+            if (isComplete) {
+                mScreenCache.put(cacheKey, records);
+            }
+        }
+
+        final List<IndexData> resourceIndexData = new ArrayList<>();
+        if (records.isEmpty()) {
+            return resourceIndexData;
+        }
+
+        // The first record is the header element.
+        final ParsedScreenCache.PreferenceRecord header = records.get(0);
+        final String screenTitle = header.title;
+        // TODO: Set payload type for header results
+        IndexData.Builder headerBuilder = new IndexData.Builder();
+        headerBuilder.setTitle(header.title)
+                .setSummaryOn(header.summary)
+                .setScreenTitle(screenTitle)
+                .setKeywords(header.keywords)
+                .setClassName(sir.className)
+                .setPackageName(sir.packageName)
+                .setAuthority(authority)
+                .setIntentAction(sir.intentAction)
+                .setIntentTargetPackage(sir.intentTargetPackage)
+                .setIntentTargetClass(sir.intentTargetClass)
+                .setEnabled(!nonIndexableKeys.contains(header.key))
+                .setKey(header.key);
+
+        // Flag for XML headers which a child element's title.
+        boolean isHeaderUnique = true;
+        IndexData.Builder builder;
+
+        for (int i = 1; i < records.size(); i++) {
+            final ParsedScreenCache.PreferenceRecord record = records.get(i);
+
+            if (isHeaderUnique && TextUtils.equals(header.title, record.title)) {
+                isHeaderUnique = false;
+            }
+
+            // TODO (b/62254931) index primitives instead of payload
+            // TODO (b/62807132) Add proper inline support
+            //payload = DatabaseIndexingUtils.getPayloadFromUriMap(controllerUriMap, key);
+            builder = new IndexData.Builder();
+            builder.setTitle(record.title)
+                    .setSummaryOn(record.summary)
+                    .setEntries(record.entries)
+                    .setKeywords(record.keywords)
+                    .setClassName(sir.className)
+                    .setChildClassName(record.childFragment)
+                    .setScreenTitle(screenTitle)
+                    .setIconResId(record.iconResId)
+                    .setPackageName(sir.packageName)
+                    .setAuthority(authority)
+                    .setIntentAction(sir.intentAction)
+                    .setIntentTargetPackage(sir.intentTargetPackage)
+                    .setIntentTargetClass(sir.intentTargetClass)
+                    .setEnabled(!nonIndexableKeys.contains(record.key))
+                    .setKey(record.key);
+            tryAddIndexDataToList(resourceIndexData, builder);
+        }
+
+        // The xml header's title does not match the title of one of the child settings.
+        // A screen which could not be parsed to the end does not get its header indexed.
+        if (isHeaderUnique && isComplete) {
+            tryAddIndexDataToList(resourceIndexData, headerBuilder);
+        }
+        return resourceIndexData;
+    }
+
+    /**
+     * Parses the xml layout of {@param sir} into {@param records}, starting with the header
+     * element.
+     *
+     * @return true if the whole document was parsed.
+     */
+    private boolean parseResource(SearchIndexableResource sir,
+            List<ParsedScreenCache.PreferenceRecord> records) {
         final Context context = sir.context;
+        final ResourceValueCache cache = mResourceValueCache;
         XmlResourceParser parser = null;
-
-        List<IndexData> resourceIndexData = new ArrayList<>();
         try {
             parser = context.getResources().getXml(sir.xmlResId);
 
@@ -215,21 +389,9 @@ public class IndexDataConverter {
 
             final int outerDepth = parser.getDepth();
             final AttributeSet attrs = Xml.asAttributeSet(parser);
-
-            final String screenTitle = XmlParserUtils.getDataTitle(context, attrs);
-            final String headerKey = XmlParserUtils.getDataKey(context, attrs);
-
-            String title;
-            String key;
-            String headerTitle;
-            String summary;
-            String headerSummary;
-            String keywords;
-            String headerKeywords;
-            String childFragment;
-            @DrawableRes int iconResId;
-            ResultPayload payload;
-            boolean enabled;
+            final XmlParserUtils.PreferenceAttributes prefAttrs =
+                    new XmlParserUtils.PreferenceAttributes();
+            prefAttrs.read(context, attrs, cache);
 
             // TODO REFACTOR (b/62807132) Add proper inline support
 //            Map<String, PreferenceControllerMixin> controllerUriMap = null;
@@ -239,28 +401,9 @@ public class IndexDataConverter {
 //                        .getPreferenceControllerUriMap(fragmentName, context);
 //            }
 
-            headerTitle = XmlParserUtils.getDataTitle(context, attrs);
-            headerSummary = XmlParserUtils.getDataSummary(context, attrs);
-            headerKeywords = XmlParserUtils.getDataKeywords(context, attrs);
-            enabled = !nonIndexableKeys.contains(headerKey);
-            // TODO: Set payload type for header results
-            IndexData.Builder headerBuilder = new IndexData.Builder();
-            headerBuilder.setTitle(headerTitle)
-                    .setSummaryOn(headerSummary)
-                    .setScreenTitle(screenTitle)
-                    .setKeywords(headerKeywords)
-                    .setClassName(sir.className)
-                    .setPackageName(sir.packageName)
-                    .setAuthority(authority)
-                    .setIntentAction(sir.intentAction)
-                    .setIntentTargetPackage(sir.intentTargetPackage)
-                    .setIntentTargetClass(sir.intentTargetClass)
-                    .setEnabled(enabled)
-                    .setKey(headerKey);
-
-            // Flag for XML headers which a child element's title.
-            boolean isHeaderUnique = true;
-            IndexData.Builder builder;
+            records.add(new ParsedScreenCache.PreferenceRecord(prefAttrs.getKey(),
+                    prefAttrs.getTitle(), prefAttrs.getSummary(), prefAttrs.getKeywords(),
+                    null /* childFragment */, null /* entries */, 0 /* iconResId */));
 
             while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
                     && (type != XmlPullParser.END_TAG || parser.getDepth() > outerDepth)) {
@@ -276,68 +419,28 @@ public class IndexDataConverter {
                     continue;
                 }
 
-                title = XmlParserUtils.getDataTitle(context, attrs);
-                key = XmlParserUtils.getDataKey(context, attrs);
-                enabled = !nonIndexableKeys.contains(key);
-                keywords = XmlParserUtils.getDataKeywords(context, attrs);
-                iconResId = XmlParserUtils.getDataIcon(context, attrs);
-
-                if (isHeaderUnique && TextUtils.equals(headerTitle, title)) {
-                    isHeaderUnique = false;
-                }
-
-                builder = new IndexData.Builder();
-                builder.setTitle(title)
-                        .setKeywords(keywords)
-                        .setClassName(sir.className)
-                        .setScreenTitle(screenTitle)
-                        .setIconResId(iconResId)
-                        .setPackageName(sir.packageName)
-                        .setAuthority(authority)
-                        .setIntentAction(sir.intentAction)
-                        .setIntentTargetPackage(sir.intentTargetPackage)
-                        .setIntentTargetClass(sir.intentTargetClass)
-                        .setEnabled(enabled)
-                        .setKey(key);
-
+                prefAttrs.read(context, attrs, cache);
+                final String summary;
+                String entries = null;
+                String childFragment = null;
                 if (!nodeName.equals(NODE_NAME_CHECK_BOX_PREFERENCE)) {
-                    summary = XmlParserUtils.getDataSummary(context, attrs);
-
-                    String entries = null;
-
+                    summary = prefAttrs.getSummary();
                     if (nodeName.endsWith(NODE_NAME_LIST_PREFERENCE)) {
-                        entries = XmlParserUtils.getDataEntries(context, attrs);
+                        entries = prefAttrs.getEntries(context, cache);
                     }
-
-                    // TODO (b/62254931) index primitives instead of payload
-                    // TODO (b/62807132) Add proper inline support
-                    //payload = DatabaseIndexingUtils.getPayloadFromUriMap(controllerUriMap, key);
-                    childFragment = XmlParserUtils.getDataChildFragment(context, attrs);
-
-                    builder.setSummaryOn(summary)
-                            .setEntries(entries)
-                            .setChildClassName(childFragment);
-                    tryAddIndexDataToList(resourceIndexData, builder);
+                    childFragment = prefAttrs.getChildFragment();
                 } else {
                     // TODO (b/33577327) We removed summary off here. We should check if we can
                     // merge this 'else' section with the one above. Put a break point to
                     // investigate.
-                    String summaryOn = XmlParserUtils.getDataSummaryOn(context, attrs);
-
-                    if (TextUtils.isEmpty(summaryOn)) {
-                        summaryOn = XmlParserUtils.getDataSummary(context, attrs);
-                    }
-
-                    builder.setSummaryOn(summaryOn);
-
-                    tryAddIndexDataToList(resourceIndexData, builder);
+                    summary = TextUtils.isEmpty(prefAttrs.getSummaryOn())
+                            ? prefAttrs.getSummary() : prefAttrs.getSummaryOn();
                 }
+                records.add(new ParsedScreenCache.PreferenceRecord(prefAttrs.getKey(),
+                        prefAttrs.getTitle(), summary, prefAttrs.getKeywords(), childFragment,
+                        entries, prefAttrs.getIconResId()));
             }
-
-            // The xml header's title does not match the title of one of the child settings.
-            if (isHeaderUnique) {
-                tryAddIndexDataToList(resourceIndexData, headerBuilder);
-            }
+            return true;
         } catch (XmlPullParserException e) {
             Log.w(TAG, "XML Error parsing PreferenceScreen: " + sir.className, e);
         } catch (IOException e) {
@@ -349,12 +452,12 @@ public class IndexDataConverter {
                 parser.close();
             }
         }
-        return resourceIndexData;
+        return false;
     }
 
     private void tryAddIndexDataToList(List<IndexData> list, IndexData.Builder data) {
         if (!TextUtils.isEmpty(data.getKey())) {
-            list.add(data.build(mContext));
+            list.add(data.build());
         } else {
             Log.w(TAG, "Skipping index for null-key item " + data);
         }
@@ -365,4 +468,48 @@ public class IndexDataConverter {
         final Set<String> result = nonIndexableKeys.get(authority);
         return result != null ? result : new ArraySet<>();
     }
+
+    /**
+     * Converts a range of the flattened {@link SearchIndexableData} list, splitting itself into
+     * smaller tasks until the range fits in {@link #CONVERSION_BATCH_SIZE}. The results of the
+     * sub tasks are concatenated in order, so the output does not depend on scheduling.
+     */
+    private class ConversionTask extends RecursiveTask<List<IndexData>> {
+
+        private final List<Pair<String, SearchIndexableData>> mIndexableData;
+        private final Map<String, Set<String>> mNonIndexableKeys;
+        private final int mStart;
+        private final int mEnd;
+
+        public ConversionTask(List<Pair<String, SearchIndexableData>> indexableData,
+                Map<String, Set<String>> nonIndexableKeys, int start, int end) {
+            mIndexableData = indexableData;
+            mNonIndexableKeys = nonIndexableKeys;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected List<IndexData> compute() {
+            if (mEnd - mStart <= CONVERSION_BATCH_SIZE) {
+                final List<IndexData> indexData = new ArrayList<>();
+                for (int i = mStart; i < mEnd; i++) {
+                    final Pair<String, SearchIndexableData> data = mIndexableData.get(i);
+                    indexData.addAll(convertIndexableData(data.first, data.second,
+                            mNonIndexableKeys));
+                }
+                return indexData;
+            }
+            final int middle = (mStart + mEnd) >>> 1;
+            final ConversionTask head = new ConversionTask(mIndexableData, mNonIndexableKeys,
+                    mStart, middle);
+            final ConversionTask tail = new ConversionTask(mIndexableData, mNonIndexableKeys,
+                    middle, mEnd);
+            head.fork();
+            final List<IndexData> tailData = tail.compute();
+            final List<IndexData> indexData = head.join();
+            indexData.addAll(tailData);
+            return indexData;
+        }
+    }
 }
@@ -18,7 +18,6 @@ package com.android.settings.intelligence.search.indexing;
 
 import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.database.Cursor;
@@ -27,25 +26,31 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Build;
 import androidx.annotation.VisibleForTesting;
 import android.text.TextUtils;
+import android.util.ArraySet;
 import android.util.Log;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class IndexDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String TAG = "IndexDatabaseHelper";
 
     private static final String DATABASE_NAME = "search_index.db";
-    private static final int DATABASE_VERSION = 120;
+    private static final int DATABASE_VERSION = 121;
 
     @VisibleForTesting
     static final String SHARED_PREFS_TAG = "indexing_manager";
 
-    private static final String PREF_KEY_INDEXED_PROVIDERS = "indexed_providers";
+    private static final String PREF_KEY_INDEXED_APP_VERSION = "indexed_app_version";
+    private static final String PREF_KEY_PREFIX_AUTHORITY_GENERATION = "authority_generation:";
+    private static final String PREF_KEY_INDEX_AVAILABLE = "index_available";
 
     public interface Tables {
         String TABLE_PREFS_INDEX = "prefs_index";
+        String TABLE_PREFS_INDEX_FTS = "prefs_index_fts";
         String TABLE_SITE_MAP = "site_map";
         String TABLE_META_INDEX = "meta_index";
         String TABLE_SAVED_QUERIES = "saved_queries";
@@ -71,11 +76,14 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String ENABLED = "enabled";
         String DATA_KEY_REF = "data_key_reference";
         String PAYLOAD_TYPE = "payload_type";
-        String PAYLOAD = "payload";
+        String CONTENT_DIGEST = "content_digest";
+        String STATIC_RANK = "static_rank";
+        String BREADCRUMBS = "breadcrumbs";
     }
 
     public interface MetaColumns {
         String BUILD = "build";
+        String CHECKPOINT = "checkpoint";
     }
 
     public interface SavedQueriesColumns {
@@ -91,54 +99,120 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         String CHILD_TITLE = "child_title";
     }
 
+    /**
+     * Columns of {@link Tables#TABLE_PREFS_INDEX}, besides its {@link SiteMapColumns#DOCID}.
+     */
+    public static final String[] INDEX_COLUMNS = {
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_OFF,
+            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
+            IndexColumns.DATA_ENTRIES,
+            IndexColumns.DATA_KEYWORDS,
+            IndexColumns.DATA_PACKAGE,
+            IndexColumns.DATA_AUTHORITY,
+            IndexColumns.SCREEN_TITLE,
+            IndexColumns.CLASS_NAME,
+            IndexColumns.ICON,
+            IndexColumns.INTENT_ACTION,
+            IndexColumns.INTENT_TARGET_PACKAGE,
+            IndexColumns.INTENT_TARGET_CLASS,
+            IndexColumns.ENABLED,
+            IndexColumns.DATA_KEY_REF,
+            IndexColumns.PAYLOAD_TYPE,
+            IndexColumns.CONTENT_DIGEST,
+            IndexColumns.STATIC_RANK,
+            IndexColumns.BREADCRUMBS,
+    };
+
+    /**
+     * Columns of {@link Tables#TABLE_PREFS_INDEX} which are tokenized into
+     * {@link Tables#TABLE_PREFS_INDEX_FTS}, the only ones queries match against. The summary off
+     * columns are never written, so they are not indexed.
+     */
+    public static final String[] SEARCH_COLUMNS = {
+            IndexColumns.DATA_TITLE,
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
+            IndexColumns.DATA_ENTRIES,
+            IndexColumns.DATA_KEYWORDS,
+    };
+
+    /**
+     * Holds the indexed data. Only its search columns are tokenized, into
+     * {@link Tables#TABLE_PREFS_INDEX_FTS}.
+     */
     private static final String CREATE_INDEX_TABLE =
-            "CREATE VIRTUAL TABLE " + Tables.TABLE_PREFS_INDEX + " USING fts4" +
+            "CREATE TABLE " + Tables.TABLE_PREFS_INDEX +
                     "(" +
-                    IndexColumns.DATA_TITLE +
-                    ", " +
-                    IndexColumns.DATA_TITLE_NORMALIZED +
-                    ", " +
-                    IndexColumns.DATA_SUMMARY_ON +
-                    ", " +
-                    IndexColumns.DATA_SUMMARY_ON_NORMALIZED +
-                    ", " +
-                    IndexColumns.DATA_SUMMARY_OFF +
-                    ", " +
-                    IndexColumns.DATA_SUMMARY_OFF_NORMALIZED +
-                    ", " +
-                    IndexColumns.DATA_ENTRIES +
-                    ", " +
-                    IndexColumns.DATA_KEYWORDS +
-                    ", " +
-                    IndexColumns.DATA_PACKAGE +
+                    SiteMapColumns.DOCID + " INTEGER PRIMARY KEY" +
                     ", " +
+                    TextUtils.join(", ", INDEX_COLUMNS) +
+                    ")";
+
+    /**
+     * Rows are deleted and updated by authority, and disabled by authority and key.
+     */
+    private static final String CREATE_INDEX_AUTHORITY_INDEX =
+            "CREATE INDEX " + Tables.TABLE_PREFS_INDEX + "_" + IndexColumns.DATA_AUTHORITY +
+                    " ON " + Tables.TABLE_PREFS_INDEX +
+                    "(" +
                     IndexColumns.DATA_AUTHORITY +
                     ", " +
-                    IndexColumns.SCREEN_TITLE +
-                    ", " +
-                    IndexColumns.CLASS_NAME +
-                    ", " +
-                    IndexColumns.ICON +
-                    ", " +
-                    IndexColumns.INTENT_ACTION +
-                    ", " +
-                    IndexColumns.INTENT_TARGET_PACKAGE +
-                    ", " +
-                    IndexColumns.INTENT_TARGET_CLASS +
-                    ", " +
-                    IndexColumns.ENABLED +
-                    ", " +
                     IndexColumns.DATA_KEY_REF +
+                    ")";
+
+    /**
+     * Screen titles and breadcrumbs are looked up and updated by class name.
+     */
+    private static final String CREATE_INDEX_CLASS_NAME_INDEX =
+            "CREATE INDEX " + Tables.TABLE_PREFS_INDEX + "_" + IndexColumns.CLASS_NAME +
+                    " ON " + Tables.TABLE_PREFS_INDEX +
+                    "(" +
+                    IndexColumns.CLASS_NAME +
+                    ")";
+
+    /**
+     * External content full text index of {@link Tables#TABLE_PREFS_INDEX}, whose docids are the
+     * docids of the indexed rows. The prefix indexes let prefix queries such as "wi*" read a few
+     * index entries instead of every term starting with the prefix.
+     *
+     * Every word of a column is a term of the index, including each "|" separated entry, so a
+     * prefix query matches the start of any word. Prefixes longer than 3 characters are a range
+     * scan over few enough terms that a prefix index for them costs more to write than it saves.
+     */
+    private static final String CREATE_INDEX_FTS_TABLE =
+            "CREATE VIRTUAL TABLE " + Tables.TABLE_PREFS_INDEX_FTS + " USING fts4" +
+                    "(" +
+                    "content=\"" + Tables.TABLE_PREFS_INDEX + "\"" +
                     ", " +
-                    IndexColumns.PAYLOAD_TYPE +
+                    TextUtils.join(", ", SEARCH_COLUMNS) +
                     ", " +
-                    IndexColumns.PAYLOAD +
-                    ");";
+                    "prefix=\"1,2,3\"" +
+                    ")";
+
+    /**
+     * Keep {@link Tables#TABLE_PREFS_INDEX_FTS} in sync with the content table. Updates which do
+     * not touch the search columns, such as enabling rows, are not tokenized again.
+     */
+    private static final String[] CREATE_INDEX_FTS_TRIGGERS = {
+            buildIndexFtsTrigger("bu", "BEFORE UPDATE OF " + TextUtils.join(", ", SEARCH_COLUMNS),
+                    false /* insert */),
+            buildIndexFtsTrigger("bd", "BEFORE DELETE", false /* insert */),
+            buildIndexFtsTrigger("au", "AFTER UPDATE OF " + TextUtils.join(", ", SEARCH_COLUMNS),
+                    true /* insert */),
+            buildIndexFtsTrigger("ai", "AFTER INSERT", true /* insert */),
+    };
 
     private static final String CREATE_META_TABLE =
             "CREATE TABLE " + Tables.TABLE_META_INDEX +
                     "(" +
                     MetaColumns.BUILD + " VARCHAR(32) NOT NULL" +
+                    ", " +
+                    MetaColumns.CHECKPOINT + " TEXT" +
                     ")";
 
     private static final String CREATE_SAVED_QUERIES_TABLE =
@@ -162,7 +236,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
                     ")";
     private static final String INSERT_BUILD_VERSION =
             "INSERT INTO " + Tables.TABLE_META_INDEX +
-                    " VALUES ('" + Build.VERSION.INCREMENTAL + "');";
+                    " (" + MetaColumns.BUILD + ") VALUES ('" + Build.VERSION.INCREMENTAL + "');";
 
     private static final String SELECT_BUILD_VERSION =
             "SELECT " + MetaColumns.BUILD + " FROM " + Tables.TABLE_META_INDEX + " LIMIT 1;";
@@ -179,8 +253,15 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     }
 
     public IndexDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    @VisibleForTesting
+    IndexDatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
         mContext = context.getApplicationContext();
+        // Lets queries read the last committed index while a new one is being written.
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -189,7 +270,7 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
     }
 
     private void bootstrapDB(SQLiteDatabase db) {
-        db.execSQL(CREATE_INDEX_TABLE);
+        createIndexTables(db);
         db.execSQL(CREATE_META_TABLE);
         db.execSQL(CREATE_SAVED_QUERIES_TABLE);
         db.execSQL(CREATE_SITE_MAP_TABLE);
@@ -197,6 +278,45 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         Log.i(TAG, "Bootstrapped database");
     }
 
+    /**
+     * Creates the content table, its indexes and its full text index, and the triggers which keep
+     * the full text index in sync.
+     */
+    private static void createIndexTables(SQLiteDatabase db) {
+        db.execSQL(CREATE_INDEX_TABLE);
+        db.execSQL(CREATE_INDEX_AUTHORITY_INDEX);
+        db.execSQL(CREATE_INDEX_CLASS_NAME_INDEX);
+        db.execSQL(CREATE_INDEX_FTS_TABLE);
+        for (String trigger : CREATE_INDEX_FTS_TRIGGERS) {
+            db.execSQL(trigger);
+        }
+    }
+
+    private static String buildIndexFtsTrigger(String name, String event, boolean insert) {
+        final StringBuilder sb = new StringBuilder("CREATE TRIGGER ")
+                .append(Tables.TABLE_PREFS_INDEX_FTS).append('_').append(name)
+                .append(' ').append(event)
+                .append(" ON ").append(Tables.TABLE_PREFS_INDEX)
+                .append(" BEGIN ");
+        if (insert) {
+            sb.append("INSERT INTO ").append(Tables.TABLE_PREFS_INDEX_FTS)
+                    .append('(').append(SiteMapColumns.DOCID);
+            for (String column : SEARCH_COLUMNS) {
+                sb.append(", ").append(column);
+            }
+            sb.append(") VALUES (new.").append(SiteMapColumns.DOCID);
+            for (String column : SEARCH_COLUMNS) {
+                sb.append(", new.").append(column);
+            }
+            sb.append(");");
+        } else {
+            sb.append("DELETE FROM ").append(Tables.TABLE_PREFS_INDEX_FTS)
+                    .append(" WHERE ").append(SiteMapColumns.DOCID)
+                    .append(" = old.").append(SiteMapColumns.DOCID).append(';');
+        }
+        return sb.append(" END").toString();
+    }
+
     @Override
     public void onOpen(SQLiteDatabase db) {
         super.onOpen(db);
@@ -204,9 +324,9 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         Log.i(TAG, "Using schema version: " + db.getVersion());
 
         if (!Build.VERSION.INCREMENTAL.equals(getBuildVersion(db))) {
+            // The index of the previous build keeps serving queries while the full index
+            // replaces it provider by provider, see finishFullIndex().
             Log.w(TAG, "Index needs to be rebuilt as build-version is not the same");
-            // We need to drop the tables and recreate them
-            reconstruct(db);
         } else {
             Log.i(TAG, "Index is fine");
         }
@@ -239,7 +359,29 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         bootstrapDB(db);
     }
 
-    private String getBuildVersion(SQLiteDatabase db) {
+    /**
+     * Deletes the indexed data of all authorities but {@param authorities}, and stamps the index
+     * with the current build, without touching the schema or the saved queries. Used at the end
+     * of a full index, to eliminate rows which are dynamically inserted by deprecated settings.
+     */
+    public void finishFullIndex(SQLiteDatabase db, Collection<String> authorities) {
+        final StringBuilder whereClause = new StringBuilder(IndexColumns.DATA_AUTHORITY)
+                .append(" IS NULL OR ")
+                .append(IndexColumns.DATA_AUTHORITY)
+                .append(" NOT IN (");
+        int i = 0;
+        for (String authority : authorities) {
+            whereClause.append(i++ > 0 ? ", ?" : "?");
+        }
+        whereClause.append(')');
+        db.delete(Tables.TABLE_PREFS_INDEX, whereClause.toString(),
+                authorities.toArray(new String[0]));
+        db.delete(Tables.TABLE_META_INDEX, null /* whereClause */, null /* whereArgs */);
+        db.execSQL(INSERT_BUILD_VERSION);
+    }
+
+    @VisibleForTesting
+    static String getBuildVersion(SQLiteDatabase db) {
         String version = null;
         Cursor cursor = null;
         try {
@@ -257,73 +399,147 @@ public class IndexDatabaseHelper extends SQLiteOpenHelper {
         return version;
     }
 
+    /**
+     * @return the index generation of the provider in {@param info}, which changes whenever its
+     * content has to be indexed again: when the owning package is updated or the locale changed.
+     */
     @VisibleForTesting
-    static String buildProviderVersionedNames(Context context, List<ResolveInfo> providers) {
-        // TODO Refactor update test to reflect version code change.
+    static String buildAuthorityGeneration(Context context, ResolveInfo info) {
+        final String packageName = info.providerInfo.packageName;
+        return packageName + ':' + getVersionCode(context, packageName)
+                + ':' + Locale.getDefault().toString();
+    }
+
+    private static long getVersionCode(Context context, String packageName) {
         try {
-            StringBuilder sb = new StringBuilder();
-            for (ResolveInfo info : providers) {
-                String packageName = info.providerInfo.packageName;
-                PackageInfo packageInfo = context.getPackageManager().getPackageInfo(packageName,
-                        0 /* flags */);
-                sb.append(packageName)
-                        .append(':')
-                        .append(packageInfo.versionCode)
-                        .append(',');
-            }
-            // add SettingsIntelligence version as well.
-            sb.append(context.getPackageName())
-                    .append(':')
-                    .append(context.getPackageManager()
-                            .getPackageInfo(context.getPackageName(), 0 /* flags */).versionCode);
-            return sb.toString();
+            return context.getPackageManager().getPackageInfo(packageName, 0 /* flags */)
+                    .versionCode;
         } catch (PackageManager.NameNotFoundException e) {
             Log.d(TAG, "Could not find package name in provider", e);
+            return -1;
         }
-        return "";
     }
 
     /**
-     * Set a flag that indicates the search database is fully indexed.
+     * @return the authorities which have been indexed before.
      */
-    static void setIndexed(Context context, List<ResolveInfo> providers) {
-        final String localeStr = Locale.getDefault().toString();
+    private static Set<String> getIndexedAuthorities(SharedPreferences prefs) {
+        final Set<String> authorities = new ArraySet<>();
+        for (String key : prefs.getAll().keySet()) {
+            if (key.startsWith(PREF_KEY_PREFIX_AUTHORITY_GENERATION)) {
+                authorities.add(key.substring(PREF_KEY_PREFIX_AUTHORITY_GENERATION.length()));
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * Set a flag that indicates the search database is indexed, and record the index generation
+     * of each provider in {@param providers} except {@param skippedAuthorities}, which keep
+     * their previous generation.
+     */
+    static void setIndexed(Context context, List<ResolveInfo> providers,
+            Set<String> skippedAuthorities) {
         final String fingerprint = Build.VERSION.INCREMENTAL;
-        final String providerVersionedNames =
-                IndexDatabaseHelper.buildProviderVersionedNames(context, providers);
+        final SharedPreferences prefs = context
+                .getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE);
+        final SharedPreferences.Editor editor = prefs.edit()
+                .putBoolean(fingerprint, true)
+                .putBoolean(PREF_KEY_INDEX_AVAILABLE, true)
+                .putLong(PREF_KEY_INDEXED_APP_VERSION,
+                        getVersionCode(context, context.getPackageName()));
+
+        final Set<String> removedAuthorities = getIndexedAuthorities(prefs);
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            if (TextUtils.isEmpty(authority)) {
+                continue;
+            }
+            removedAuthorities.remove(authority);
+            if (!skippedAuthorities.contains(authority)) {
+                editor.putString(PREF_KEY_PREFIX_AUTHORITY_GENERATION + authority,
+                        buildAuthorityGeneration(context, info));
+            }
+        }
+        for (String authority : removedAuthorities) {
+            editor.remove(PREF_KEY_PREFIX_AUTHORITY_GENERATION + authority);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Set a flag that indicates the committed part of the index can serve queries, while the rest
+     * of it is still being indexed.
+     */
+    static void setIndexAvailable(Context context) {
         context.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
                 .edit()
-                .putBoolean(localeStr, true)
-                .putBoolean(fingerprint, true)
-                .putString(PREF_KEY_INDEXED_PROVIDERS, providerVersionedNames)
+                .putBoolean(PREF_KEY_INDEX_AVAILABLE, true)
                 .apply();
     }
 
+    /**
+     * @return true if an index has been committed, which can serve queries even while it is
+     * being updated.
+     */
+    static boolean isIndexAvailable(Context context) {
+        return context.getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE)
+                .getBoolean(PREF_KEY_INDEX_AVAILABLE, false);
+    }
+
     /**
      * Checks if the indexed data requires full index. The index data is out of date when:
-     * - Device language has changed
      * - Device has taken an OTA.
+     * - SettingsIntelligence itself has been updated.
      * In both cases, the device requires a full index.
      *
      * @return true if a full index should be preformed.
      */
-    static boolean isFullIndex(Context context, List<ResolveInfo> providers) {
-        final String localeStr = Locale.getDefault().toString();
+    static boolean isFullIndex(Context context) {
         final String fingerprint = Build.VERSION.INCREMENTAL;
-        final String providerVersionedNames =
-                IndexDatabaseHelper.buildProviderVersionedNames(context, providers);
         final SharedPreferences prefs = context
                 .getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE);
 
         final boolean isIndexed = prefs.getBoolean(fingerprint, false)
-                && prefs.getBoolean(localeStr, false)
-                && TextUtils.equals(
-                prefs.getString(PREF_KEY_INDEXED_PROVIDERS, null), providerVersionedNames);
+                && prefs.getLong(PREF_KEY_INDEXED_APP_VERSION, -1)
+                == getVersionCode(context, context.getPackageName());
         return !isIndexed;
     }
 
+    /**
+     * Returns the authorities whose indexed data is out of date, and must be deleted and indexed
+     * again. This is the case when:
+     * - The provider has never been indexed.
+     * - The package of the provider has been updated.
+     * - Device language has changed since the provider was indexed.
+     * - The provider is no longer installed.
+     * - A full index is performed.
+     */
+    static Set<String> getStaleAuthorities(Context context, List<ResolveInfo> providers,
+            boolean isFullIndex) {
+        final SharedPreferences prefs = context
+                .getSharedPreferences(SHARED_PREFS_TAG, Context.MODE_PRIVATE);
+        final Set<String> staleAuthorities = getIndexedAuthorities(prefs);
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            if (TextUtils.isEmpty(authority)) {
+                continue;
+            }
+            final String generation = prefs.getString(
+                    PREF_KEY_PREFIX_AUTHORITY_GENERATION + authority, null);
+            if (!isFullIndex
+                    && TextUtils.equals(generation, buildAuthorityGeneration(context, info))) {
+                staleAuthorities.remove(authority);
+            } else {
+                staleAuthorities.add(authority);
+            }
+        }
+        return staleAuthorities;
+    }
+
     private void dropTables(SQLiteDatabase db) {
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_META_INDEX);
+        db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX_FTS);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_PREFS_INDEX);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SAVED_QUERIES);
         db.execSQL("DROP TABLE IF EXISTS " + Tables.TABLE_SITE_MAP);
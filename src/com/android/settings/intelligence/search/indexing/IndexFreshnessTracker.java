@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ResolveInfo;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.settings.intelligence.R;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks which authorities may have changed since they were last indexed, so that opening search
+ * does not query every SearchIndexablesProvider when nothing changed.
+ *
+ * An authority becomes dirty when its non-indexable keys URI is notified, or when its package
+ * changes. Everything becomes dirty when the locale changes, when a package without a known
+ * provider changes, or when the last sweep is older than the configured maximum age, as not all
+ * providers notify their changes.
+ */
+public class IndexFreshnessTracker {
+
+    private static final String TAG = "IndexFreshnessTracker";
+
+    private final Context mContext;
+    private final long mMaxAgeMs;
+
+    private final Set<String> mDirtyAuthorities = new ArraySet<>();
+    private final Map<String, Set<String>> mPackageAuthorities = new ArrayMap<>();
+    private final Map<String, ContentObserver> mObservers = new ArrayMap<>();
+
+    private boolean mIsAllDirty = true;
+    private boolean mAreProvidersDirty;
+    private long mLastIndexedTime;
+    private boolean mIsListening;
+
+    public IndexFreshnessTracker(Context context) {
+        mContext = context.getApplicationContext();
+        mMaxAgeMs = mContext.getResources().getInteger(R.integer.non_indexable_keys_max_age_ms);
+    }
+
+    /**
+     * @return true if no authority may have changed since it was last indexed.
+     */
+    public synchronized boolean isClean() {
+        return !mIsAllDirty && !mAreProvidersDirty && mDirtyAuthorities.isEmpty()
+                && SystemClock.elapsedRealtime() - mLastIndexedTime < mMaxAgeMs;
+    }
+
+    /**
+     * Takes the authorities which need their non-indexable keys refreshed, and marks them clean.
+     *
+     * @return the dirty authorities, or null if all of them are dirty.
+     */
+    public synchronized Set<String> takeDirtyAuthorities() {
+        final boolean isExpired = SystemClock.elapsedRealtime() - mLastIndexedTime >= mMaxAgeMs;
+        final Set<String> dirtyAuthorities =
+                mIsAllDirty || isExpired ? null : new ArraySet<>(mDirtyAuthorities);
+        mIsAllDirty = false;
+        mAreProvidersDirty = false;
+        mDirtyAuthorities.clear();
+        return dirtyAuthorities;
+    }
+
+    /**
+     * Marks {@param authorities} dirty again, or all authorities if it is null.
+     */
+    public synchronized void markDirty(Collection<String> authorities) {
+        if (authorities == null) {
+            mIsAllDirty = true;
+        } else {
+            mDirtyAuthorities.addAll(authorities);
+        }
+    }
+
+    public synchronized void markAllDirty() {
+        mIsAllDirty = true;
+    }
+
+    /**
+     * Starts observing {@param providers} once they have been indexed, and stops observing the
+     * providers which are gone.
+     */
+    public synchronized void onIndexed(List<ResolveInfo> providers) {
+        startListening();
+        mLastIndexedTime = SystemClock.elapsedRealtime();
+        mPackageAuthorities.clear();
+
+        final Set<String> removedAuthorities = new ArraySet<>(mObservers.keySet());
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            final String packageName = info.providerInfo.packageName;
+            if (TextUtils.isEmpty(authority)) {
+                continue;
+            }
+            removedAuthorities.remove(authority);
+            Set<String> authorities = mPackageAuthorities.get(packageName);
+            if (authorities == null) {
+                authorities = new ArraySet<>();
+                mPackageAuthorities.put(packageName, authorities);
+            }
+            authorities.add(authority);
+            if (!mObservers.containsKey(authority)) {
+                observe(authority);
+            }
+        }
+
+        final Iterator<Map.Entry<String, ContentObserver>> iterator =
+                mObservers.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, ContentObserver> entry = iterator.next();
+            if (removedAuthorities.contains(entry.getKey())) {
+                mContext.getContentResolver().unregisterContentObserver(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    private void observe(String authority) {
+        final ContentObserver observer = new AuthorityObserver(authority);
+        try {
+            mContext.getContentResolver().registerContentObserver(
+                    PreIndexDataCollector.buildUriForNonIndexableKeys(authority),
+                    false /* notifyForDescendants */, observer);
+            mObservers.put(authority, observer);
+        } catch (SecurityException e) {
+            // Without an observer the authority is refreshed when the maximum age is reached.
+            Log.w(TAG, "Cannot observe " + authority, e);
+        }
+    }
+
+    private void startListening() {
+        if (mIsListening) {
+            return;
+        }
+        mIsListening = true;
+
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final Uri data = intent.getData();
+                onPackageChanged(data != null ? data.getSchemeSpecificPart() : null);
+            }
+        }, packageFilter);
+
+        mContext.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (DEBUG) {
+                    Log.d(TAG, "Locale changed, all authorities are dirty");
+                }
+                markAllDirty();
+            }
+        }, new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    private synchronized void onPackageChanged(String packageName) {
+        final Set<String> authorities = mPackageAuthorities.get(packageName);
+        if (DEBUG) {
+            Log.d(TAG, "Package " + packageName + " changed, dirty authorities: " + authorities);
+        }
+        if (authorities != null) {
+            mDirtyAuthorities.addAll(authorities);
+        } else {
+            // The package may have added a provider, which is picked up as a stale authority.
+            mAreProvidersDirty = true;
+        }
+    }
+
+    private class AuthorityObserver extends ContentObserver {
+
+        private final String mAuthority;
+
+        public AuthorityObserver(String authority) {
+            super(null /* handler */);
+            mAuthority = authority;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (DEBUG) {
+                Log.d(TAG, "Non-indexable keys changed for " + mAuthority);
+            }
+            markDirty(Collections.singleton(mAuthority));
+        }
+    }
+}
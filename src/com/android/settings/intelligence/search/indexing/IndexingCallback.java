@@ -21,6 +21,12 @@ package com.android.settings.intelligence.search.indexing;
  */
 public interface IndexingCallback {
 
+    /**
+     * Called when the providers of a priority tier have been indexed, and the index can serve
+     * their results while the remaining providers are still being indexed.
+     */
+    void onIndexingProgress();
+
     /**
      * Called when Indexing is finished.
      */
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.MetaColumns;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_META_INDEX;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ResolveInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Progress of an indexing run, saved in the meta_index table as the rows of each provider are
+ * committed. If the process is killed in the middle of a run, the next run does not index the
+ * completed providers again.
+ *
+ * A provider only counts as completed while its index generation is unchanged, and the
+ * checkpoint of another build is ignored.
+ */
+public class IndexingCheckpoint {
+
+    private static final String TAG = "IndexingCheckpoint";
+
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = '\t';
+
+    /**
+     * Generation of each completed authority.
+     */
+    private final Map<String, String> mCompletedAuthorities = new ArrayMap<>();
+
+    private IndexingCheckpoint() {
+    }
+
+    /**
+     * @return the checkpoint saved in {@param database}, which is empty if the last run was
+     * not interrupted.
+     */
+    public static IndexingCheckpoint load(SQLiteDatabase database) {
+        final IndexingCheckpoint checkpoint = new IndexingCheckpoint();
+        final Cursor cursor = database.query(TABLE_META_INDEX,
+                new String[] {MetaColumns.CHECKPOINT}, null /* selection */,
+                null /* selectionArgs */, null /* groupBy */, null /* having */,
+                null /* orderBy */, "1" /* limit */);
+        try {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                checkpoint.parse(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Marks the run as finished.
+     */
+    public static void clear(SQLiteDatabase database) {
+        final ContentValues values = new ContentValues(1);
+        values.putNull(MetaColumns.CHECKPOINT);
+        database.update(TABLE_META_INDEX, values, null /* whereClause */, null /* whereArgs */);
+    }
+
+    public boolean isEmpty() {
+        return mCompletedAuthorities.isEmpty();
+    }
+
+    /**
+     * @return the authorities of {@param providers} which have been completed with their
+     * current index generation.
+     */
+    public Set<String> getCompletedAuthorities(Context context, List<ResolveInfo> providers) {
+        final Set<String> authorities = new ArraySet<>();
+        for (ResolveInfo info : providers) {
+            final String authority = info.providerInfo.authority;
+            final String generation = mCompletedAuthorities.get(authority);
+            if (generation != null && TextUtils.equals(generation,
+                    IndexDatabaseHelper.buildAuthorityGeneration(context, info))) {
+                authorities.add(authority);
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * Records {@param info} as completed and saves the checkpoint in {@param database}, as part
+     * of the transaction which commits its rows.
+     */
+    public void complete(Context context, SQLiteDatabase database, ResolveInfo info) {
+        mCompletedAuthorities.put(info.providerInfo.authority,
+                IndexDatabaseHelper.buildAuthorityGeneration(context, info));
+        final ContentValues values = new ContentValues(1);
+        values.put(MetaColumns.CHECKPOINT, format());
+        database.update(TABLE_META_INDEX, values, null /* whereClause */, null /* whereArgs */);
+    }
+
+    /**
+     * The checkpoint is the build on the first line, followed by one line per completed
+     * authority with its generation.
+     */
+    private String format() {
+        final StringBuilder sb = new StringBuilder(Build.VERSION.INCREMENTAL);
+        for (Map.Entry<String, String> entry : mCompletedAuthorities.entrySet()) {
+            sb.append(LINE_SEPARATOR)
+                    .append(entry.getKey())
+                    .append(FIELD_SEPARATOR)
+                    .append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void parse(String value) {
+        final String[] lines = TextUtils.split(value, String.valueOf(LINE_SEPARATOR));
+        if (lines.length == 0 || !Build.VERSION.INCREMENTAL.equals(lines[0])) {
+            Log.i(TAG, "Ignoring checkpoint of another build");
+            return;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            final int separator = lines[i].indexOf(FIELD_SEPARATOR);
+            if (separator > 0) {
+                mCompletedAuthorities.put(lines[i].substring(0, separator),
+                        lines[i].substring(separator + 1));
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.android.settings.intelligence.overlay.FeatureFactory;
+
+/**
+ * Schedules the {@link IndexingJobService} after a boot, which includes the first boot after an
+ * OTA, after a locale change, and after this app has been updated, unless the index is still up
+ * to date.
+ */
+public class IndexingJobReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "IndexingJobReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action)
+                && !Intent.ACTION_LOCALE_CHANGED.equals(action)
+                && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult result = goAsync();
+        // Checking the providers queries the package manager, so it is done off the main thread.
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (FeatureFactory.get(appContext).searchFeatureProvider()
+                            .getIndexingManager(appContext).isIndexStale()) {
+                        IndexingJobService.schedule(appContext);
+                    } else if (DEBUG) {
+                        Log.d(TAG, "Index is up to date, not scheduling index maintenance");
+                    }
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+}
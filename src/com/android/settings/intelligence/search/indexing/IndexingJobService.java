@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import com.android.settings.intelligence.overlay.FeatureFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Updates the search index in the background while the device is idle or charging, so the first
+ * search after a boot, an OTA or a locale change does not pay for a full index in front of the
+ * user.
+ *
+ * The job runs the same {@link DatabaseIndexingManager#performIndexing()} as the search UI, which
+ * persists the indexed state; a later search then only finds an up-to-date index. It runs on its
+ * own thread, so it does not hold up the AsyncTasks of the search UI, and stops between two
+ * providers when the job is stopped, keeping the providers it already committed.
+ */
+public class IndexingJobService extends JobService {
+
+    private static final String TAG = "IndexingJobService";
+
+    private static final int JOB_ID_IDLE = 0x5e1d0001;
+    private static final int JOB_ID_CHARGING = 0x5e1d0002;
+
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private IndexingJobTask mTask;
+
+    /**
+     * Schedules the index to be updated once the device is idle, or once it is charging,
+     * whichever comes first.
+     */
+    public static void schedule(Context context) {
+        final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null) {
+            return;
+        }
+        final ComponentName component = new ComponentName(context, IndexingJobService.class);
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID_IDLE, component)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build());
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID_CHARGING, component)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build());
+        if (DEBUG) {
+            Log.d(TAG, "Scheduled index maintenance");
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        mTask = new IndexingJobTask(params);
+        mTask.executeOnExecutor(EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            // Indexing stops once the provider being written is committed, and the rescheduled
+            // job resumes from there.
+            mTask.stop();
+            mTask = null;
+        }
+        return true;
+    }
+
+    private class IndexingJobTask extends AsyncTask<Void, Void, Void> {
+
+        private final JobParameters mParams;
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+        public IndexingJobTask(JobParameters params) {
+            mParams = params;
+        }
+
+        public void stop() {
+            mCancellationSignal.cancel();
+        }
+
+        @Override
+        protected Void doInBackground(Void... voids) {
+            final Context context = IndexingJobService.this;
+            FeatureFactory.get(context).searchFeatureProvider().getIndexingManager(context)
+                    .performIndexing(mCancellationSignal);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void aVoid) {
+            if (mCancellationSignal.isCanceled()) {
+                // The job has been stopped, and is rescheduled by the system.
+                return;
+            }
+            // The other job has nothing left to do.
+            final int otherJobId =
+                    mParams.getJobId() == JOB_ID_IDLE ? JOB_ID_CHARGING : JOB_ID_IDLE;
+            getSystemService(JobScheduler.class).cancel(otherJobId);
+            jobFinished(mParams, false /* wantsReschedule */);
+            mTask = null;
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.content.pm.ResolveInfo;
+import android.database.sqlite.SQLiteDatabase;
+import android.provider.SearchIndexableData;
+import android.text.TextUtils;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.LongSparseArray;
+import android.util.Pair;
+
+import com.android.settings.intelligence.search.sitemap.SiteMapPair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Streams index data from the {@link PreIndexDataCollector}, through the
+ * {@link IndexDataConverter}, into the search database.
+ *
+ * Collecting, converting and writing run as separate stages connected by bounded queues, so rows
+ * are written while later providers are still being read, and the data held in memory is bounded
+ * by the queue sizes instead of by the size of the whole index. The writing stage runs on the
+ * calling thread, which owns the database transaction, and reports each provider once all of its
+ * rows have been written, so the transaction can be committed provider by provider. The site map
+ * pairs of each provider are written along with its rows, so they are committed together.
+ */
+public class IndexingPipeline {
+
+    private static final String TAG = "IndexingPipeline";
+
+    /**
+     * Number of collected providers waiting to be converted.
+     */
+    private static final int PROVIDER_QUEUE_CAPACITY = 2;
+
+    /**
+     * Number of converted chunks waiting to be written.
+     */
+    private static final int BATCH_QUEUE_CAPACITY = 4;
+
+    /**
+     * Number of {@link SearchIndexableData} converted into a single chunk of rows.
+     */
+    private static final int CONVERSION_CHUNK_SIZE = 32;
+
+    private static final CollectedProvider END_OF_PROVIDERS = new CollectedProvider(null, null);
+    private static final WriteBatch END_OF_BATCHES = new WriteBatch(null, null, null);
+
+    private final PreIndexDataCollector mCollector;
+    private final IndexDataConverter mConverter;
+
+    /**
+     * Notified on the writing thread once all rows of a provider have been written.
+     */
+    public interface ProviderWrittenListener {
+
+        /**
+         * @param authority    the authority of the provider.
+         * @param providerData the non-indexable keys and failed authorities of the provider.
+         */
+        void onProviderWritten(String authority, PreIndexData providerData);
+    }
+
+    public IndexingPipeline(PreIndexDataCollector collector, IndexDataConverter converter) {
+        mCollector = collector;
+        mConverter = converter;
+    }
+
+    /**
+     * Collects, converts and writes the index data of {@param providers} into {@param database}.
+     * The rows of a stale authority are replaced once its provider has been collected; providers
+     * which could not be collected keep their previous rows.
+     *
+     * @param staleAuthorities the authorities whose rows are replaced.
+     * @param replaceSiteMap   whether the site map is replaced by the pairs of {@param providers}
+     *                         instead of being extended.
+     * @param listener         notified of each provider once its rows have been written.
+     * @return the non-indexable keys and failed authorities of all providers, and the parent and
+     * child class names of the site map pairs which were written. The data to update has already
+     * been written, and is not part of the result.
+     */
+    public PreIndexData run(SQLiteDatabase database, List<ResolveInfo> providers,
+            Set<String> staleAuthorities, boolean replaceSiteMap,
+            ProviderWrittenListener listener) throws InterruptedException {
+        final BlockingQueue<CollectedProvider> providerQueue =
+                new ArrayBlockingQueue<>(PROVIDER_QUEUE_CAPACITY);
+        final BlockingQueue<WriteBatch> batchQueue =
+                new ArrayBlockingQueue<>(BATCH_QUEUE_CAPACITY);
+        final PreIndexData result = new PreIndexData();
+
+        final FutureTask<Void> collectTask = new FutureTask<>(
+                new CollectStage(providers, staleAuthorities, providerQueue));
+        final FutureTask<Void> convertTask = new FutureTask<>(
+                new ConvertStage(providerQueue, batchQueue, result));
+        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        mConverter.beginIndexingRun();
+        try {
+            executorService.execute(collectTask);
+            executorService.execute(convertTask);
+            write(database, staleAuthorities, replaceSiteMap, listener, batchQueue, result);
+            // The converting stage is checked first: if it failed, the collecting stage may be
+            // blocked on a full queue until it is interrupted.
+            checkStage(convertTask);
+            checkStage(collectTask);
+        } finally {
+            // Unblocks the other stages if writing failed.
+            executorService.shutdownNow();
+            mConverter.endIndexingRun();
+        }
+        return result;
+    }
+
+    /**
+     * Writing stage: writes the converted rows as they come in, replacing the rows of each stale
+     * authority. Rows whose {@link IndexData#contentDigest} matches a row already in the database
+     * are kept as they are, so only changed rows are inserted or deleted. The enabled state of a
+     * kept row is not part of its digest, and is updated if it changed.
+     */
+    private void write(SQLiteDatabase database, Set<String> staleAuthorities,
+            boolean replaceSiteMap, ProviderWrittenListener listener,
+            BlockingQueue<WriteBatch> batchQueue, PreIndexData result)
+            throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        final Set<String> replacedAuthorities = new ArraySet<>();
+        final IndexDataConverter.SiteMapPairsBuilder siteMapBuilder =
+                new IndexDataConverter.SiteMapPairsBuilder();
+        final IndexDataBulkLoader loader = new IndexDataBulkLoader(database);
+        int unchangedCount = 0;
+        try {
+            if (replaceSiteMap) {
+                // Committed along with the first provider.
+                loader.deleteSiteMapPairs();
+            }
+            // The batches of an authority are queued one after the other, so only the previous
+            // rows of the current authority are held.
+            String currentAuthority = null;
+            LongSparseArray<List<IndexDataBulkLoader.IndexedRow>> previousRows = null;
+            WriteBatch batch;
+            while ((batch = batchQueue.take()) != END_OF_BATCHES) {
+                if (batch.mRows == null) {
+                    // All rows of the provider have been written.
+                    deleteUnclaimedRows(loader, currentAuthority, previousRows);
+                    currentAuthority = null;
+                    previousRows = null;
+                    final String authority = batch.mAuthority;
+                    if (staleAuthorities.contains(authority)
+                            && !batch.mProviderData.getFailedAuthorities().contains(authority)
+                            && replacedAuthorities.add(authority)) {
+                        // The provider has no rows left.
+                        deleteIndexData(loader, authority);
+                    }
+                    writeSiteMapPairs(loader, siteMapBuilder,
+                            batch.mProviderData.getSiteMapPairs(), result);
+                    listener.onProviderWritten(authority, batch.mProviderData);
+                    continue;
+                }
+                if (!TextUtils.equals(currentAuthority, batch.mAuthority)) {
+                    deleteUnclaimedRows(loader, currentAuthority, previousRows);
+                    currentAuthority = batch.mAuthority;
+                    previousRows = staleAuthorities.contains(currentAuthority)
+                            && replacedAuthorities.add(currentAuthority)
+                            ? loader.getIndexDataDigests(currentAuthority) : null;
+                }
+                for (IndexData row : batch.mRows) {
+                    final IndexDataBulkLoader.IndexedRow previousRow =
+                            claimPreviousRow(previousRows, row.contentDigest);
+                    if (previousRow == null) {
+                        loader.insertIndexData(row);
+                        continue;
+                    }
+                    unchangedCount++;
+                    if (previousRow.enabled != row.enabled) {
+                        loader.updateIndexDataEnabled(previousRow.docid, row.enabled);
+                    }
+                }
+                siteMapBuilder.addIndexData(batch.mRows);
+            }
+            deleteUnclaimedRows(loader, currentAuthority, previousRows);
+
+            // Stale authorities which are no longer installed.
+            for (String authority : staleAuthorities) {
+                if (!replacedAuthorities.contains(authority)
+                        && !result.getFailedAuthorities().contains(authority)) {
+                    deleteIndexData(loader, authority);
+                }
+            }
+            siteMapBuilder.finish();
+        } finally {
+            loader.close();
+        }
+
+        if (DEBUG) {
+            final long writeTime = Math.max(1, System.currentTimeMillis() - startTime);
+            final int count = loader.getInsertedIndexDataCount();
+            Log.d(TAG, "Inserted " + count + " rows in " + writeTime + " ms ("
+                    + (count * 1000L / writeTime) + " rows/s), kept " + unchangedCount
+                    + " unchanged rows");
+        }
+    }
+
+    /**
+     * Writes the site map pairs of the rows written since the last provider, and the dynamic
+     * {@param siteMapClassNames} of the provider. Screens indexed by an earlier run, or by a
+     * provider committed before the run was interrupted, are looked up in the database.
+     * The class names of the written pairs are added to {@param result}.
+     */
+    private void writeSiteMapPairs(IndexDataBulkLoader loader,
+            IndexDataConverter.SiteMapPairsBuilder siteMapBuilder,
+            List<Pair<String, String>> siteMapClassNames, PreIndexData result) {
+        for (Pair<String, String> pair : siteMapClassNames) {
+            addScreenTitle(loader, siteMapBuilder, pair.first);
+            addScreenTitle(loader, siteMapBuilder, pair.second);
+        }
+        final List<SiteMapPair> siteMapPairs = siteMapBuilder.build(siteMapClassNames);
+        loader.insertSiteMapPairs(siteMapPairs);
+        final List<Pair<String, String>> writtenClassNames = new ArrayList<>(siteMapPairs.size());
+        for (SiteMapPair pair : siteMapPairs) {
+            writtenClassNames.add(Pair.create(pair.getParentClass(), pair.getChildClass()));
+        }
+        result.addSiteMapPairs(writtenClassNames);
+    }
+
+    private static void addScreenTitle(IndexDataBulkLoader loader,
+            IndexDataConverter.SiteMapPairsBuilder siteMapBuilder, String className) {
+        if (siteMapBuilder.hasScreenTitle(className)) {
+            return;
+        }
+        final String screenTitle = loader.getScreenTitle(className);
+        if (screenTitle != null) {
+            siteMapBuilder.addScreenTitle(className, screenTitle);
+        }
+    }
+
+    /**
+     * Claims a previous row with the same content as a new row, which then does not need to be
+     * written.
+     *
+     * @return the claimed row, or null if no such row was found.
+     */
+    private static IndexDataBulkLoader.IndexedRow claimPreviousRow(
+            LongSparseArray<List<IndexDataBulkLoader.IndexedRow>> previousRows,
+            long contentDigest) {
+        if (previousRows == null) {
+            return null;
+        }
+        final List<IndexDataBulkLoader.IndexedRow> rows = previousRows.get(contentDigest);
+        if (rows == null || rows.isEmpty()) {
+            return null;
+        }
+        return rows.remove(rows.size() - 1);
+    }
+
+    /**
+     * Deletes the previous rows of {@param authority} which were not claimed by any new row.
+     */
+    private void deleteUnclaimedRows(IndexDataBulkLoader loader, String authority,
+            LongSparseArray<List<IndexDataBulkLoader.IndexedRow>> previousRows) {
+        if (previousRows == null) {
+            return;
+        }
+        int count = 0;
+        for (int i = 0; i < previousRows.size(); i++) {
+            for (IndexDataBulkLoader.IndexedRow row : previousRows.valueAt(i)) {
+                loader.deleteIndexDataRow(row.docid);
+                count++;
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Deleted " + count + " changed rows of authority " + authority);
+        }
+    }
+
+    private void deleteIndexData(IndexDataBulkLoader loader, String authority) {
+        final int count = loader.deleteIndexData(authority);
+        if (DEBUG) {
+            Log.d(TAG, "Deleted " + count + " rows of authority " + authority);
+        }
+    }
+
+    /**
+     * Rethrows the failure of a finished stage on the calling thread.
+     */
+    private static void checkStage(FutureTask<Void> stage) throws InterruptedException {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Indexing stage failed", cause);
+        }
+    }
+
+    /**
+     * Collecting stage: queues the data of each provider as soon as it has been collected.
+     */
+    private class CollectStage implements Callable<Void> {
+
+        private final List<ResolveInfo> mProviders;
+        private final Set<String> mStaleAuthorities;
+        private final BlockingQueue<CollectedProvider> mProviderQueue;
+
+        public CollectStage(List<ResolveInfo> providers, Set<String> staleAuthorities,
+                BlockingQueue<CollectedProvider> providerQueue) {
+            mProviders = providers;
+            mStaleAuthorities = staleAuthorities;
+            mProviderQueue = providerQueue;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                mCollector.collectIndexableData(mProviders, mStaleAuthorities,
+                        new PreIndexDataCollector.ProviderDataCallback() {
+                            @Override
+                            public void onProviderDataCollected(String authority,
+                                    PreIndexData providerData) throws InterruptedException {
+                                mProviderQueue.put(new CollectedProvider(authority, providerData));
+                            }
+                        });
+            } finally {
+                mProviderQueue.put(END_OF_PROVIDERS);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Converting stage: converts the data of each provider in chunks, and queues the rows for
+     * writing. Everything but the data to update and the site map pairs is kept in the result,
+     * the writing stage adds the site map pairs it writes.
+     */
+    private class ConvertStage implements Callable<Void> {
+
+        private final BlockingQueue<CollectedProvider> mProviderQueue;
+        private final BlockingQueue<WriteBatch> mBatchQueue;
+        private final PreIndexData mResult;
+
+        public ConvertStage(BlockingQueue<CollectedProvider> providerQueue,
+                BlockingQueue<WriteBatch> batchQueue, PreIndexData result) {
+            mProviderQueue = providerQueue;
+            mBatchQueue = batchQueue;
+            mResult = result;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                CollectedProvider provider;
+                while ((provider = mProviderQueue.take()) != END_OF_PROVIDERS) {
+                    convert(provider.mAuthority, provider.mData);
+                }
+            } finally {
+                mBatchQueue.put(END_OF_BATCHES);
+            }
+            return null;
+        }
+
+        private void convert(String providerAuthority, PreIndexData providerData)
+                throws InterruptedException {
+            final Map<String, Set<String>> nonIndexableKeys = providerData.getNonIndexableKeys();
+            for (Map.Entry<String, List<SearchIndexableData>> entry
+                    : providerData.getDataToUpdate().entrySet()) {
+                final String authority = entry.getKey();
+                final List<SearchIndexableData> data = entry.getValue();
+                for (int start = 0; start < data.size(); start += CONVERSION_CHUNK_SIZE) {
+                    final int end = Math.min(start + CONVERSION_CHUNK_SIZE, data.size());
+                    final List<IndexData> rows = mConverter.convertIndexableData(authority,
+                            data.subList(start, end), nonIndexableKeys);
+                    mBatchQueue.put(new WriteBatch(authority, rows, null /* providerData */));
+                }
+            }
+
+            for (Map.Entry<String, Set<String>> entry : nonIndexableKeys.entrySet()) {
+                mResult.addNonIndexableKeysForAuthority(entry.getKey(), entry.getValue());
+            }
+            for (String authority : providerData.getFailedAuthorities()) {
+                mResult.addFailedAuthority(authority);
+            }
+            mBatchQueue.put(new WriteBatch(providerAuthority, null /* rows */, providerData));
+        }
+    }
+
+    /**
+     * The data collected from the provider of a single authority.
+     */
+    private static class CollectedProvider {
+
+        private final String mAuthority;
+        private final PreIndexData mData;
+
+        public CollectedProvider(String authority, PreIndexData data) {
+            mAuthority = authority;
+            mData = data;
+        }
+    }
+
+    /**
+     * A chunk of converted rows of a single authority, or the end of the rows of a provider,
+     * which then carries the data collected from the provider instead of rows.
+     */
+    private static class WriteBatch {
+
+        private final String mAuthority;
+        private final List<IndexData> mRows;
+        private final PreIndexData mProviderData;
+
+        public WriteBatch(String authority, List<IndexData> rows, PreIndexData providerData) {
+            mAuthority = authority;
+            mRows = rows;
+            mProviderData = providerData;
+        }
+    }
+}
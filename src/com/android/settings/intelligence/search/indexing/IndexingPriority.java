@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ResolveInfo;
+
+import com.android.settings.intelligence.R;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the SearchIndexablesProviders by the priority of their package, so that the providers
+ * users search most are indexed and committed first, and search can serve their results before
+ * the whole index has been built.
+ *
+ * Providers are indexed in tiers: the configured priority packages, then the other system
+ * packages, then all remaining packages.
+ */
+public class IndexingPriority {
+
+    public static final int TIER_PRIORITY = 0;
+    public static final int TIER_SYSTEM = 1;
+    public static final int TIER_OTHER = 2;
+
+    private final List<String> mPriorityPackages;
+
+    public IndexingPriority(Context context) {
+        mPriorityPackages = Arrays.asList(context.getResources()
+                .getStringArray(R.array.config_indexing_priority_packages));
+    }
+
+    /**
+     * @return the tier in which the provider in {@param info} is indexed.
+     */
+    public int getTier(ResolveInfo info) {
+        if (mPriorityPackages.contains(info.providerInfo.packageName)) {
+            return TIER_PRIORITY;
+        }
+        final ApplicationInfo appInfo = info.providerInfo.applicationInfo;
+        if (appInfo != null && (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0) {
+            return TIER_SYSTEM;
+        }
+        return TIER_OTHER;
+    }
+
+    /**
+     * @return {@param providers} in the order in which they are indexed. Providers of the same
+     * priority keep their order.
+     */
+    public List<ResolveInfo> sort(List<ResolveInfo> providers) {
+        final List<ResolveInfo> sortedProviders = new ArrayList<>(providers);
+        Collections.sort(sortedProviders, new Comparator<ResolveInfo>() {
+            @Override
+            public int compare(ResolveInfo a, ResolveInfo b) {
+                final int result = Integer.compare(getTier(a), getTier(b));
+                if (result != 0) {
+                    return result;
+                }
+                return Integer.compare(getPackageRank(a), getPackageRank(b));
+            }
+        });
+        return sortedProviders;
+    }
+
+    /**
+     * @return the position of the package of {@param info} in the priority packages, or the
+     * number of priority packages if it is not one of them.
+     */
+    private int getPackageRank(ResolveInfo info) {
+        final int index = mPriorityPackages.indexOf(info.providerInfo.packageName);
+        return index < 0 ? mPriorityPackages.size() : index;
+    }
+}
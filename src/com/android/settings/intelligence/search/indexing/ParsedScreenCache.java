@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.SearchFeatureProvider.DEBUG;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.os.Build;
+import androidx.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of the attributes extracted from PreferenceScreen XML resources, so screens of
+ * unchanged packages are not parsed again by every full index.
+ *
+ * Each screen is stored in its own binary file, keyed by package, version code, xml resource id
+ * and locale, and by the configuration and resource overlays the package resources are resolved
+ * with. Files are read through a memory-mapped buffer. The cache lives in the cache
+ * directory, so the system may clear it at any time; a missing or unreadable file is a miss.
+ */
+public class ParsedScreenCache {
+
+    private static final String TAG = "ParsedScreenCache";
+
+    private static final String CACHE_DIR_NAME = "parsed_screens";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int MAGIC = 0x50534331; // "PSC1"
+    private static final int FORMAT_VERSION = 2;
+
+    private static final PackageKey MISSING_PACKAGE = new PackageKey(0 /* versionCode */,
+            null /* build */, null /* resourceFingerprint */);
+
+    private final File mCacheDir;
+
+    /**
+     * Package info looked up during the current indexing run, keyed by package name, so each
+     * package is only looked up once per run rather than once per screen. Packages which could
+     * not be found are kept as {@link #MISSING_PACKAGE}.
+     */
+    private volatile Map<String, PackageKey> mPackageKeys;
+
+    public ParsedScreenCache(Context context) {
+        mCacheDir = new File(context.getCacheDir(), CACHE_DIR_NAME);
+    }
+
+    /**
+     * Attributes of a single preference node, as they are used for indexing.
+     */
+    public static class PreferenceRecord {
+        public final String key;
+        public final String title;
+        public final String summary;
+        public final String keywords;
+        public final String childFragment;
+        public final String entries;
+        public final int iconResId;
+
+        public PreferenceRecord(String key, String title, String summary, String keywords,
+                String childFragment, String entries, int iconResId) {
+            this.key = key;
+            this.title = title;
+            this.summary = summary;
+            this.keywords = keywords;
+            this.childFragment = childFragment;
+            this.entries = entries;
+            this.iconResId = iconResId;
+        }
+    }
+
+    /**
+     * The part of a {@link Key} shared by all screens of a package.
+     */
+    private static class PackageKey {
+        private final long mVersionCode;
+        private final String mBuild;
+        private final String mResourceFingerprint;
+
+        private PackageKey(long versionCode, String build, String resourceFingerprint) {
+            mVersionCode = versionCode;
+            mBuild = build;
+            mResourceFingerprint = resourceFingerprint;
+        }
+    }
+
+    /**
+     * Identifies a parsed screen. Screens of system packages which have not been updated are
+     * additionally bound to the build, as their version code does not change with an OTA.
+     */
+    public static class Key {
+        private final String mPackageName;
+        private final long mVersionCode;
+        private final String mBuild;
+        private final String mResourceFingerprint;
+        private final int mXmlResId;
+        private final String mLocale;
+
+        private Key(String packageName, PackageKey packageKey, int xmlResId, String locale) {
+            mPackageName = packageName;
+            mVersionCode = packageKey.mVersionCode;
+            mBuild = packageKey.mBuild;
+            mResourceFingerprint = packageKey.mResourceFingerprint;
+            mXmlResId = xmlResId;
+            mLocale = locale;
+        }
+
+        private String getFileName() {
+            return mPackageName + '_' + Integer.toHexString(mXmlResId) + '_' + mLocale
+                    + FILE_SUFFIX;
+        }
+    }
+
+    /**
+     * Starts keeping the package info looked up by {@link #getKey}, until
+     * {@link #endIndexingRun()}. Packages may be updated between indexing runs.
+     */
+    public void beginIndexingRun() {
+        mPackageKeys = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Drops the package info kept since {@link #beginIndexingRun()}.
+     */
+    public void endIndexingRun() {
+        mPackageKeys = null;
+    }
+
+    /**
+     * @return the key of the {@param xmlResId} screen of {@param packageName}, or null if the
+     * package can not be found.
+     */
+    @Nullable
+    public Key getKey(Context context, String packageName, int xmlResId) {
+        if (TextUtils.isEmpty(packageName) || xmlResId == 0) {
+            return null;
+        }
+        final Map<String, PackageKey> packageKeys = mPackageKeys;
+        PackageKey packageKey = packageKeys != null ? packageKeys.get(packageName) : null;
+        if (packageKey == null) {
+            packageKey = getPackageKey(context, packageName);
+            if (packageKeys != null) {
+                packageKeys.put(packageName, packageKey);
+            }
+        }
+        if (packageKey == MISSING_PACKAGE) {
+            return null;
+        }
+        return new Key(packageName, packageKey, xmlResId, Locale.getDefault().toString());
+    }
+
+    private static PackageKey getPackageKey(Context context, String packageName) {
+        final PackageInfo packageInfo;
+        try {
+            packageInfo = context.getPackageManager().getPackageInfo(packageName, 0 /* flags */);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.w(TAG, "Could not find package " + packageName);
+            return MISSING_PACKAGE;
+        }
+        final ApplicationInfo appInfo = packageInfo.applicationInfo;
+        final boolean isSystemImage = appInfo != null
+                && (appInfo.flags & ApplicationInfo.FLAG_SYSTEM) != 0
+                && (appInfo.flags & ApplicationInfo.FLAG_UPDATED_SYSTEM_APP) == 0;
+        return new PackageKey(packageInfo.versionCode,
+                isSystemImage ? Build.VERSION.INCREMENTAL : "",
+                getResourceFingerprint(context.getResources().getConfiguration(), appInfo));
+    }
+
+    /**
+     * @return the configuration qualifiers the strings of a screen may depend on, and the
+     * resource overlays applied to the package, along with the time each overlay was last
+     * modified, as overlays may be updated in place.
+     */
+    private static String getResourceFingerprint(Configuration config, ApplicationInfo appInfo) {
+        final StringBuilder sb = new StringBuilder()
+                .append(config.getLocales().toLanguageTags())
+                .append(";mcc").append(config.mcc)
+                .append(";mnc").append(config.mnc)
+                .append(";sw").append(config.smallestScreenWidthDp)
+                .append(";layout").append(config.screenLayout)
+                .append(";ui").append(config.uiMode);
+        if (appInfo != null && appInfo.resourceDirs != null) {
+            for (String resourceDir : appInfo.resourceDirs) {
+                sb.append(';').append(resourceDir)
+                        .append('@').append(new File(resourceDir).lastModified());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the cached records of the screen, or null if they are not cached.
+     */
+    @Nullable
+    public List<PreferenceRecord> get(@Nullable Key key) {
+        if (key == null) {
+            return null;
+        }
+        final File file = new File(mCacheDir, key.getFileName());
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            final FileChannel channel = randomAccessFile.getChannel();
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            return readRecords(buffer, key);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(TAG, "Dropping unreadable cache file " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(randomAccessFile);
+        }
+    }
+
+    /**
+     * Stores {@param records} as the parsed content of the screen.
+     */
+    public void put(@Nullable Key key, List<PreferenceRecord> records) {
+        if (key == null) {
+            return;
+        }
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + mCacheDir);
+            return;
+        }
+        File tempFile = null;
+        FileOutputStream out = null;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writeRecords(new DataOutputStream(bytes), key, records);
+            // Written aside and renamed, so a concurrent reader never sees a partial file.
+            tempFile = File.createTempFile(key.mPackageName, null /* suffix */, mCacheDir);
+            out = new FileOutputStream(tempFile);
+            bytes.writeTo(out);
+            out.close();
+            out = null;
+            if (!tempFile.renameTo(new File(mCacheDir, key.getFileName()))) {
+                Log.w(TAG, "Could not store " + key.getFileName());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not store " + key.getFileName(), e);
+        } finally {
+            closeQuietly(out);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static List<PreferenceRecord> readRecords(ByteBuffer buffer, Key key) {
+        if (buffer.getInt() != MAGIC
+                || buffer.getInt() != FORMAT_VERSION
+                || buffer.getLong() != key.mVersionCode
+                || buffer.getInt() != key.mXmlResId
+                || !TextUtils.equals(readString(buffer), key.mBuild)
+                || !TextUtils.equals(readString(buffer), key.mResourceFingerprint)
+                || !TextUtils.equals(readString(buffer), key.mLocale)) {
+            if (DEBUG) {
+                Log.d(TAG, "Outdated cache file " + key.getFileName());
+            }
+            return null;
+        }
+        final int count = buffer.getInt();
+        final List<PreferenceRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(new PreferenceRecord(
+                    readString(buffer) /* key */,
+                    readString(buffer) /* title */,
+                    readString(buffer) /* summary */,
+                    readString(buffer) /* keywords */,
+                    readString(buffer) /* childFragment */,
+                    readString(buffer) /* entries */,
+                    buffer.getInt() /* iconResId */));
+        }
+        return records;
+    }
+
+    private static void writeRecords(DataOutputStream out, Key key,
+            List<PreferenceRecord> records) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(key.mVersionCode);
+        out.writeInt(key.mXmlResId);
+        writeString(out, key.mBuild);
+        writeString(out, key.mResourceFingerprint);
+        writeString(out, key.mLocale);
+        out.writeInt(records.size());
+        for (PreferenceRecord record : records) {
+            writeString(out, record.key);
+            writeString(out, record.title);
+            writeString(out, record.summary);
+            writeString(out, record.keywords);
+            writeString(out, record.childFragment);
+            writeString(out, record.entries);
+            out.writeInt(record.iconResId);
+        }
+        out.flush();
+    }
+
+    /**
+     * Strings are stored as their length in bytes, or -1 for null, followed by their UTF-8 bytes.
+     */
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignored, the content has already been read or written.
+        }
+    }
+}
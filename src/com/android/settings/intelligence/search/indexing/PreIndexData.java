@@ -21,25 +21,31 @@ import android.provider.SearchIndexableData;
 import android.util.Pair;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * Holds Data sources for indexable data.
+ *
+ * Data is bucketed per authority, and all mutators are safe to call from the collector worker
+ * threads concurrently.
  */
 public class PreIndexData {
 
     private final Map<String, List<SearchIndexableData>> mDataToUpdate;
     private final Map<String, Set<String>> mNonIndexableKeys;
     private final List<Pair<String, String>> mSiteMapPairs;
+    private final Set<String> mFailedAuthorities;
 
     public PreIndexData() {
-        mDataToUpdate = new HashMap<>();
-        mNonIndexableKeys = new HashMap<>();
-        mSiteMapPairs = new ArrayList<>();
+        mDataToUpdate = new ConcurrentHashMap<>();
+        mNonIndexableKeys = new ConcurrentHashMap<>();
+        mSiteMapPairs = Collections.synchronizedList(new ArrayList<>());
+        mFailedAuthorities = Collections.newSetFromMap(new ConcurrentHashMap<>());
     }
 
     public Map<String, Set<String>> getNonIndexableKeys() {
@@ -54,6 +60,14 @@ public class PreIndexData {
         return mSiteMapPairs;
     }
 
+    /**
+     * @return the authorities whose data could not be collected completely, e.g. because the
+     * provider did not answer before the collection deadline.
+     */
+    public Set<String> getFailedAuthorities() {
+        return mFailedAuthorities;
+    }
+
     public void addNonIndexableKeysForAuthority(String authority, Set<String> keys) {
         mNonIndexableKeys.put(authority, keys);
     }
@@ -65,10 +79,14 @@ public class PreIndexData {
 
         List<SearchIndexableData> indexableData = mDataToUpdate.get(authority);
         if (indexableData == null) {
-            mDataToUpdate.put(authority, new ArrayList<>(data));
-        } else {
-            indexableData.addAll(data);
+            final List<SearchIndexableData> newData =
+                    Collections.synchronizedList(new ArrayList<>());
+            indexableData = mDataToUpdate.putIfAbsent(authority, newData);
+            if (indexableData == null) {
+                indexableData = newData;
+            }
         }
+        indexableData.addAll(data);
     }
 
     public void addSiteMapPairs(List<Pair<String, String>> siteMapPairs) {
@@ -78,4 +96,20 @@ public class PreIndexData {
         mSiteMapPairs.addAll(siteMapPairs);
     }
 
+    public void addFailedAuthority(String authority) {
+        mFailedAuthorities.add(authority);
+    }
+
+    /**
+     * Merges all data collected in {@param other} into this object.
+     */
+    public void addAll(PreIndexData other) {
+        for (Map.Entry<String, List<SearchIndexableData>> entry
+                : other.mDataToUpdate.entrySet()) {
+            addDataToUpdate(entry.getKey(), entry.getValue());
+        }
+        mNonIndexableKeys.putAll(other.mNonIndexableKeys);
+        addSiteMapPairs(other.mSiteMapPairs);
+        mFailedAuthorities.addAll(other.mFailedAuthorities);
+    }
 }
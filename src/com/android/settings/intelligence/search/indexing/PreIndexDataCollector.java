@@ -55,6 +55,8 @@ import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 
+import com.android.settings.intelligence.R;
+import com.android.settings.intelligence.search.PackageContextCache;
 import com.android.settings.intelligence.search.SearchFeatureProvider;
 import com.android.settings.intelligence.search.SearchIndexableRaw;
 
@@ -62,6 +64,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Collects all data from {@link android.provider.SearchIndexablesProvider} to be indexed.
@@ -72,56 +81,145 @@ public class PreIndexDataCollector {
 
     private static final List<String> EMPTY_LIST = Collections.emptyList();
 
+    /**
+     * Upper bound of providers queried at the same time. Collection is dominated by IPC latency,
+     * so this does not need to follow the number of cores.
+     */
+    private static final int MAX_COLLECTOR_THREADS = 4;
+
     private Context mContext;
 
-    private PreIndexData mIndexData;
+    /**
+     * Receives the data of each provider as soon as it has been collected.
+     */
+    public interface ProviderDataCallback {
+
+        /**
+         * Called on the collecting thread with the data of a single provider, in the order of
+         * the providers. Providers which could not be collected are reported with an otherwise
+         * empty {@link PreIndexData} listing the authority in
+         * {@link PreIndexData#getFailedAuthorities()}.
+         *
+         * @param authority the authority of the provider.
+         */
+        void onProviderDataCollected(String authority, PreIndexData providerData)
+                throws InterruptedException;
+    }
 
     public PreIndexDataCollector(Context context) {
         mContext = context;
     }
 
-    public PreIndexData collectIndexableData(List<ResolveInfo> providers, boolean isFullIndex) {
-        mIndexData = new PreIndexData();
+    /**
+     * Queries all well known providers in parallel and hands the data of each of them to
+     * {@param callback}. Each provider has {@link R.integer#collect_indexable_data_timeout_ms}
+     * from the time it is queried to answer. A provider which does not answer in time is
+     * canceled and reported as failed, and the remaining providers are still queried.
+     *
+     * At most {@link #MAX_COLLECTOR_THREADS} providers are collected ahead of the callback. The
+     * next provider is only queried once {@param callback} accepted a collected one, so the data
+     * held in memory is bounded when the callback blocks. A canceled provider may not stop right
+     * away, so it does not hold on to one of these slots.
+     *
+     * @param staleAuthorities the authorities whose indexable data is collected. Only the
+     *                         non-indexable keys are collected from all other providers.
+     */
+    public void collectIndexableData(List<ResolveInfo> providers, Set<String> staleAuthorities,
+            ProviderDataCallback callback) throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
 
+        final List<ProviderCollectTask> tasks = new ArrayList<>();
         for (final ResolveInfo info : providers) {
             if (!isWellKnownProvider(info)) {
                 continue;
             }
             final String authority = info.providerInfo.authority;
-            final String packageName = info.providerInfo.packageName;
+            tasks.add(new ProviderCollectTask(info.providerInfo.packageName, authority,
+                    staleAuthorities.contains(authority)));
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
 
-            if (isFullIndex) {
-                addIndexablesFromRemoteProvider(packageName, authority);
+        final int maxCollectingTasks = Math.min(tasks.size(), MAX_COLLECTOR_THREADS);
+        final long providerTimeoutMs = mContext.getResources().getInteger(
+                R.integer.collect_indexable_data_timeout_ms);
+        // Threads are created as needed, so a canceled provider which is still blocked in a
+        // query does not delay the next one.
+        final ExecutorService executorService = Executors.newCachedThreadPool();
+        try {
+            for (int i = 0; i < maxCollectingTasks; i++) {
+                executorService.execute(tasks.get(i));
             }
-
-            final long nonIndexableStartTime = System.currentTimeMillis();
-            addNonIndexablesKeysFromRemoteProvider(packageName, authority);
-            if (SearchFeatureProvider.DEBUG) {
-                final long nonIndexableTime = System.currentTimeMillis() - nonIndexableStartTime;
-                Log.d(TAG, "performIndexing update non-indexable for package " + packageName
-                        + " took time: " + nonIndexableTime);
+            for (int i = 0; i < tasks.size(); i++) {
+                final ProviderCollectTask task = tasks.get(i);
+                PreIndexData providerData;
+                try {
+                    providerData = task.get(task.getRemainingTimeMs(providerTimeoutMs),
+                            TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | ExecutionException e) {
+                    Log.w(TAG, "Could not collect index data in time from "
+                            + task.getAuthority() + ": " + e);
+                    task.cancel(true /* mayInterruptIfRunning */);
+                    providerData = new PreIndexData();
+                    providerData.addFailedAuthority(task.getAuthority());
+                }
+                callback.onProviderDataCollected(task.getAuthority(), providerData);
+                if (i + maxCollectingTasks < tasks.size()) {
+                    executorService.execute(tasks.get(i + maxCollectingTasks));
+                }
             }
+        } finally {
+            executorService.shutdownNow();
         }
 
-        return mIndexData;
+        if (SearchFeatureProvider.DEBUG) {
+            Log.d(TAG, "Collecting index data from " + tasks.size() + " providers took time: "
+                    + (System.currentTimeMillis() - startTime));
+        }
     }
 
-    private void addIndexablesFromRemoteProvider(String packageName, String authority) {
+    /**
+     * Collects all data of a single provider into its own {@link PreIndexData}.
+     */
+    private PreIndexData collectFromRemoteProvider(String packageName, String authority,
+            boolean isStale) {
+        final PreIndexData providerData = new PreIndexData();
+
+        final long startTime = System.currentTimeMillis();
+        if (isStale) {
+            addIndexablesFromRemoteProvider(providerData, packageName, authority);
+        }
+
+        final long nonIndexableStartTime = System.currentTimeMillis();
+        addNonIndexablesKeysFromRemoteProvider(providerData, packageName, authority);
+        if (SearchFeatureProvider.DEBUG) {
+            final long endTime = System.currentTimeMillis();
+            Log.d(TAG, "performIndexing collect indexables for package " + packageName
+                    + " took time: " + (nonIndexableStartTime - startTime)
+                    + ", update non-indexable took time: " + (endTime - nonIndexableStartTime));
+        }
+        return providerData;
+    }
+
+    private void addIndexablesFromRemoteProvider(PreIndexData indexData, String packageName,
+            String authority) {
         try {
-            final Context context = mContext.createPackageContext(packageName, 0);
+            final Context context =
+                    PackageContextCache.getInstance(mContext).getPackageContext(packageName);
 
             final Uri uriForResources = buildUriForXmlResources(authority);
-            mIndexData.addDataToUpdate(authority, getIndexablesForXmlResourceUri(
+            indexData.addDataToUpdate(authority, getIndexablesForXmlResourceUri(
                     context, packageName, uriForResources,
                     SearchIndexablesContract.INDEXABLES_XML_RES_COLUMNS));
 
             final Uri uriForRawData = buildUriForRawData(authority);
-            mIndexData.addDataToUpdate(authority, getIndexablesForRawDataUri(
+            indexData.addDataToUpdate(authority, getIndexablesForRawDataUri(
                     context, packageName, uriForRawData,
                     SearchIndexablesContract.INDEXABLES_RAW_COLUMNS));
 
             final Uri uriForSiteMap = buildUriForSiteMap(authority);
-            mIndexData.addSiteMapPairs(getSiteMapFromProvider(context, uriForSiteMap));
+            indexData.addSiteMapPairs(getSiteMapFromProvider(context, uriForSiteMap));
         } catch (PackageManager.NameNotFoundException e) {
             Log.w(TAG, "Could not create context for " + packageName + ": "
                     + Log.getStackTraceString(e));
@@ -164,14 +262,15 @@ public class PreIndexDataCollector {
         return resources;
     }
 
-    private void addNonIndexablesKeysFromRemoteProvider(String packageName, String authority) {
+    private void addNonIndexablesKeysFromRemoteProvider(PreIndexData indexData,
+            String packageName, String authority) {
         final List<String> keys =
                 getNonIndexablesKeysFromRemoteProvider(packageName, authority);
 
         if (keys != null && !keys.isEmpty()) {
             Set<String> keySet = new ArraySet<>();
             keySet.addAll(keys);
-            mIndexData.addNonIndexableKeysForAuthority(authority, keySet);
+            indexData.addNonIndexableKeysForAuthority(authority, keySet);
         }
     }
 
@@ -179,7 +278,8 @@ public class PreIndexDataCollector {
     List<String> getNonIndexablesKeysFromRemoteProvider(String packageName,
             String authority) {
         try {
-            final Context packageContext = mContext.createPackageContext(packageName, 0);
+            final Context packageContext =
+                    PackageContextCache.getInstance(mContext).getPackageContext(packageName);
 
             final Uri uriForNonIndexableKeys = buildUriForNonIndexableKeys(authority);
             return getNonIndexablesKeys(packageContext, uriForNonIndexableKeys,
@@ -201,7 +301,7 @@ public class PreIndexDataCollector {
                 SearchIndexablesContract.INDEXABLES_RAW_PATH);
     }
 
-    private Uri buildUriForNonIndexableKeys(String authority) {
+    static Uri buildUriForNonIndexableKeys(String authority) {
         return Uri.parse("content://" + authority + "/" +
                 SearchIndexablesContract.NON_INDEXABLES_KEYS_PATH);
     }
@@ -381,4 +481,50 @@ public class PreIndexDataCollector {
             return false;
         }
     }
+
+    /**
+     * {@link FutureTask} that collects the index data of a single provider.
+     */
+    private class ProviderCollectTask extends FutureTask<PreIndexData> {
+
+        private final String mAuthority;
+
+        /**
+         * The time the provider started to be queried, or 0 if it has not started yet.
+         */
+        private volatile long mStartTime;
+
+        public ProviderCollectTask(final String packageName, final String authority,
+                final boolean isStale) {
+            super(new Callable<PreIndexData>() {
+                @Override
+                public PreIndexData call() throws Exception {
+                    return collectFromRemoteProvider(packageName, authority, isStale);
+                }
+            });
+            mAuthority = authority;
+        }
+
+        @Override
+        public void run() {
+            mStartTime = System.currentTimeMillis();
+            super.run();
+        }
+
+        public String getAuthority() {
+            return mAuthority;
+        }
+
+        /**
+         * @return how long to wait for the provider, so it has {@param timeoutMs} in total from
+         * the time it started to be queried.
+         */
+        public long getRemainingTimeMs(long timeoutMs) {
+            final long startTime = mStartTime;
+            if (startTime == 0) {
+                return timeoutMs;
+            }
+            return Math.max(0, startTime + timeoutMs - System.currentTimeMillis());
+        }
+    }
 }
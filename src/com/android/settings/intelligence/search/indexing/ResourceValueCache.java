@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memoizes the resource values looked up while parsing preference screens, for the duration of
+ * a single indexing run. Many screens share the same keyword strings and entry arrays, which are
+ * then only loaded once per package. Joined entries are interned, so equal values are shared.
+ *
+ * Safe to use from the concurrent conversion tasks.
+ */
+public class ResourceValueCache {
+
+    /**
+     * Stands in for a null value, which can not be stored in a {@link ConcurrentHashMap}.
+     */
+    private static final String NO_VALUE = new String();
+
+    private final Map<String, String> mValues = new ConcurrentHashMap<>();
+    private final Map<String, String> mInternedEntries = new ConcurrentHashMap<>();
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+
+    /**
+     * @return the string {@param resId} of the package of {@param context}.
+     */
+    public String getString(Context context, int resId) {
+        final String cacheKey = buildKey(context, resId);
+        String value = mValues.get(cacheKey);
+        if (value == null) {
+            mMissCount.incrementAndGet();
+            value = context.getString(resId);
+            mValues.put(cacheKey, value);
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * @return the string array {@param resId} of the package of {@param context}, joined as
+     * search entries, or null if it is empty.
+     */
+    public String getEntries(Context context, int resId) {
+        final String cacheKey = buildKey(context, resId);
+        String value = mValues.get(cacheKey);
+        if (value == null) {
+            mMissCount.incrementAndGet();
+            value = XmlParserUtils.joinEntries(context.getResources().getStringArray(resId));
+            if (value == null) {
+                value = NO_VALUE;
+            } else {
+                final String interned = mInternedEntries.putIfAbsent(value, value);
+                if (interned != null) {
+                    value = interned;
+                }
+            }
+            mValues.put(cacheKey, value);
+        } else {
+            mHitCount.incrementAndGet();
+        }
+        return value == NO_VALUE ? null : value;
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    private static String buildKey(Context context, int resId) {
+        return context.getPackageName() + '/' + resId;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Normalizes text for indexing and for querying, so both sides agree on the same form.
+ *
+ * Each normalization is a single scan over the characters into a {@link StringBuilder} which is
+ * re-used per thread, instead of a chain of regular expression replacements each allocating a
+ * new string. Strings which do not need a change are returned as they are.
+ */
+public final class TextNormalizer {
+
+    private static final String EMPTY = "";
+    private static final char HYPHEN = '-';
+    private static final char NON_BREAKING_HYPHEN = '\u2011';
+    private static final char LIST_DELIMITER = ',';
+
+    // Unicode block "Combining Diacritical Marks".
+    private static final char FIRST_DIACRITICAL_MARK = '\u0300';
+    private static final char LAST_DIACRITICAL_MARK = '\u036F';
+
+    private static final char FIRST_HIRAGANA = '\u3041';
+    private static final char LAST_HIRAGANA = '\u3096';
+    private static final char FIRST_KATAKANA = '\u30A1';
+
+    /**
+     * Builders larger than this are not kept for re-use.
+     */
+    private static final int MAX_CACHED_BUILDER_CAPACITY = 1024;
+
+    private static final ThreadLocal<StringBuilder> sBuilder = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    private TextNormalizer() {
+    }
+
+    /**
+     * In the list of keywords, replace the comma and all subsequent whitespace with a single space.
+     */
+    public static String normalizeKeywords(String input) {
+        if (input == null) {
+            return EMPTY;
+        }
+        if (input.indexOf(LIST_DELIMITER) < 0) {
+            return input;
+        }
+        final StringBuilder sb = obtainBuilder();
+        final int length = input.length();
+        int i = 0;
+        while (i < length) {
+            final char c = input.charAt(i++);
+            if (c != LIST_DELIMITER) {
+                sb.append(c);
+                continue;
+            }
+            sb.append(' ');
+            while (i < length && isListWhitespace(input.charAt(i))) {
+                i++;
+            }
+        }
+        return toStringAndRecycle(sb);
+    }
+
+    /**
+     * @return {@param input} where all non-standard hyphens are replaced by normal hyphens.
+     */
+    public static String normalizeHyphen(String input) {
+        if (input == null) {
+            return EMPTY;
+        }
+        return input.replace(NON_BREAKING_HYPHEN, HYPHEN);
+    }
+
+    /**
+     * @return {@param input} normalized the way the normalized title and summary are indexed in
+     * the default locale.
+     */
+    public static String normalizeForIndex(String input) {
+        if (Locale.JAPAN.toString().equalsIgnoreCase(Locale.getDefault().toString())) {
+            // Special case for JP. Convert charset to the same type for indexing purpose.
+            return normalizeJapaneseString(input);
+        }
+        return normalizeString(input);
+    }
+
+    /**
+     * @return {@param input} with all hyphens and diacritical marks removed, and all letters
+     * lower case.
+     */
+    public static String normalizeString(String input) {
+        if (input == null) {
+            return EMPTY;
+        }
+        final StringBuilder sb = obtainBuilder();
+        boolean isAscii = true;
+        final int length = input.length();
+        for (int i = 0; i < length; i++) {
+            final char c = input.charAt(i);
+            if (c == HYPHEN || c == NON_BREAKING_HYPHEN) {
+                continue;
+            }
+            if (c >= 0x80) {
+                isAscii = false;
+            }
+            sb.append(c);
+        }
+
+        final String result;
+        if (isAscii) {
+            // ASCII is not changed by the decomposition, and has no diacritical marks.
+            result = sb.length() == length ? input : sb.toString();
+            recycleBuilder(sb);
+        } else {
+            final String decomposed = Normalizer.normalize(sb, Normalizer.Form.NFD);
+            sb.setLength(0);
+            final int decomposedLength = decomposed.length();
+            for (int i = 0; i < decomposedLength; i++) {
+                final char c = decomposed.charAt(i);
+                if (!isDiacriticalMark(c)) {
+                    sb.append(c);
+                }
+            }
+            result = sb.length() == decomposedLength ? decomposed : sb.toString();
+            recycleBuilder(sb);
+        }
+        return result.toLowerCase();
+    }
+
+    /**
+     * @return {@param input} with all hyphens and diacritical marks removed, Hiragana converted
+     * to full-width Katakana, and all letters lower case.
+     */
+    public static String normalizeJapaneseString(String input) {
+        if (input == null) {
+            return EMPTY;
+        }
+        final StringBuilder sb = obtainBuilder();
+        final int length = input.length();
+        for (int i = 0; i < length; i++) {
+            final char c = input.charAt(i);
+            if (c != HYPHEN) {
+                sb.append(c);
+            }
+        }
+
+        final String decomposed = Normalizer.normalize(sb, Normalizer.Form.NFKD);
+        sb.setLength(0);
+        final int decomposedLength = decomposed.length();
+        for (int i = 0; i < decomposedLength; i++) {
+            final char c = decomposed.charAt(i);
+            if (c >= FIRST_HIRAGANA && c <= LAST_HIRAGANA) {
+                sb.append((char) (c - FIRST_HIRAGANA + FIRST_KATAKANA));
+            } else if (!isDiacriticalMark(c)) {
+                sb.append(c);
+            }
+        }
+        return toStringAndRecycle(sb).toLowerCase();
+    }
+
+    private static boolean isDiacriticalMark(char c) {
+        return c >= FIRST_DIACRITICAL_MARK && c <= LAST_DIACRITICAL_MARK;
+    }
+
+    /**
+     * Same set of characters as {@code \s} in {@link java.util.regex.Pattern}.
+     */
+    private static boolean isListWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static StringBuilder obtainBuilder() {
+        final StringBuilder sb = sBuilder.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static void recycleBuilder(StringBuilder sb) {
+        if (sb.capacity() > MAX_CACHED_BUILDER_CAPACITY) {
+            sBuilder.remove();
+        }
+    }
+
+    private static String toStringAndRecycle(StringBuilder sb) {
+        final String result = sb.toString();
+        recycleBuilder(sb);
+        return result;
+    }
+}
@@ -18,6 +18,7 @@ package com.android.settings.intelligence.search.indexing;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import androidx.annotation.DrawableRes;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -72,6 +73,11 @@ public class XmlParserUtils {
     }
 
     public static String getDataKeywords(Context context, AttributeSet attrs) {
+        return getDataKeywords(context, attrs, null /* cache */);
+    }
+
+    private static String getDataKeywords(Context context, AttributeSet attrs,
+            @Nullable ResourceValueCache cache) {
         final String keywordRes = attrs.getAttributeValue(NS_APP_RES_AUTO, "keywords");
         if (TextUtils.isEmpty(keywordRes)) {
             return null;
@@ -85,7 +91,8 @@ public class XmlParserUtils {
             // It's a resource
             try  {
                 final int resValue = Integer.parseInt(keywordRes.substring(1));
-                return context.getString(resValue);
+                return cache != null ? cache.getString(context, resValue)
+                        : context.getString(resValue);
             } catch (NumberFormatException e) {
                 Log.w(TAG, "Failed to parse keyword attribute, skipping " + keywordRes);
                 return null;
@@ -108,6 +115,100 @@ public class XmlParserUtils {
                 R.styleable.Preference_android_fragment);
     }
 
+    /**
+     * Holder for all attributes of a preference node which are needed for indexing. They are
+     * resolved with a single {@link TypedArray} per node, instead of one per attribute, and the
+     * holder is re-used for all nodes of a document.
+     */
+    public static class PreferenceAttributes {
+
+        private String mKey;
+        private String mTitle;
+        private String mSummary;
+        private String mSummaryOn;
+        private String mSummaryOff;
+        private String mChildFragment;
+        private String mKeywords;
+        @DrawableRes
+        private int mIconResId;
+        private TypedValue mEntries;
+
+        /**
+         * Resolves the attributes of the current node of {@param attrs}, replacing the ones of
+         * the previous node. Referenced resource values are looked up through {@param cache},
+         * if there is one.
+         */
+        public void read(Context context, AttributeSet attrs,
+                @Nullable ResourceValueCache cache) {
+            final TypedArray ta = context.obtainStyledAttributes(attrs,
+                    R.styleable.SearchIndexablePreference);
+            mKey = ta.getString(R.styleable.SearchIndexablePreference_android_key);
+            mTitle = ta.getString(R.styleable.SearchIndexablePreference_android_title);
+            mSummary = ta.getString(R.styleable.SearchIndexablePreference_android_summary);
+            mSummaryOn = ta.getString(R.styleable.SearchIndexablePreference_android_summaryOn);
+            mSummaryOff = ta.getString(R.styleable.SearchIndexablePreference_android_summaryOff);
+            mChildFragment = ta.getString(
+                    R.styleable.SearchIndexablePreference_android_fragment);
+            mIconResId = ta.getResourceId(R.styleable.SearchIndexablePreference_android_icon, 0);
+            final TypedValue entries =
+                    ta.peekValue(R.styleable.SearchIndexablePreference_android_entries);
+            if (entries == null) {
+                mEntries = null;
+            } else {
+                if (mEntries == null) {
+                    mEntries = new TypedValue();
+                }
+                mEntries.setTo(entries);
+            }
+            ta.recycle();
+            mKeywords = getDataKeywords(context, attrs, cache);
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public String getTitle() {
+            return mTitle;
+        }
+
+        public String getSummary() {
+            return mSummary;
+        }
+
+        public String getSummaryOn() {
+            return mSummaryOn;
+        }
+
+        public String getSummaryOff() {
+            return mSummaryOff;
+        }
+
+        /**
+         * Returns the fragment name if this preference launches a child fragment.
+         */
+        public String getChildFragment() {
+            return mChildFragment;
+        }
+
+        public String getKeywords() {
+            return mKeywords;
+        }
+
+        @DrawableRes
+        public int getIconResId() {
+            return mIconResId;
+        }
+
+        /**
+         * Returns the entries of a list preference, loading the string array only when asked.
+         * The string array is looked up through {@param cache}, if there is one.
+         */
+        public String getEntries(Context context, @Nullable ResourceValueCache cache) {
+            return buildEntries(context, mEntries, cache);
+        }
+    }
+
     @Nullable
     private static String getData(Context context, AttributeSet set, int[] attrs, int resId) {
         final TypedArray ta = context.obtainStyledAttributes(set, attrs);
@@ -122,12 +223,24 @@ public class XmlParserUtils {
         final TypedArray sa = context.obtainStyledAttributes(set, attrs);
         final TypedValue tv = sa.peekValue(resId);
         sa.recycle();
-        String[] data = null;
-        if (tv != null && tv.type == TypedValue.TYPE_REFERENCE) {
-            if (tv.resourceId != 0) {
-                data = context.getResources().getStringArray(tv.resourceId);
-            }
+        return buildEntries(context, tv, null /* cache */);
+    }
+
+    private static String buildEntries(Context context, TypedValue tv,
+            @Nullable ResourceValueCache cache) {
+        if (tv == null || tv.type != TypedValue.TYPE_REFERENCE || tv.resourceId == 0) {
+            return null;
+        }
+        if (cache != null) {
+            return cache.getEntries(context, tv.resourceId);
         }
+        return joinEntries(context.getResources().getStringArray(tv.resourceId));
+    }
+
+    /**
+     * @return the search entries of a list preference, or null if {@param data} is empty.
+     */
+    static String joinEntries(String[] data) {
         final int count = (data == null) ? 0 : data.length;
         if (count == 0) {
             return null;
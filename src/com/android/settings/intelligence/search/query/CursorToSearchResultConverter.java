@@ -16,37 +16,30 @@
 
 package com.android.settings.intelligence.search.query;
 
-import static com.android.settings.intelligence.search.query.DatabaseResultTask.BASE_RANKS;
-import static com.android.settings.intelligence.search.SearchResult.TOP_RANK;
-
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.drawable.Drawable;
-import android.os.BadParcelableException;
 import android.text.TextUtils;
 import android.util.Log;
-import android.view.ContextThemeWrapper;
+import android.util.LongSparseArray;
 
-import com.android.settings.intelligence.R;
+import com.android.settings.intelligence.search.IndexedResultPayload;
+import com.android.settings.intelligence.search.PackageContextCache;
 import com.android.settings.intelligence.search.ResultPayload;
-import com.android.settings.intelligence.search.ResultPayloadUtils;
 import com.android.settings.intelligence.search.SearchResult;
 import com.android.settings.intelligence.search.indexing.IndexDatabaseHelper;
 import com.android.settings.intelligence.search.sitemap.SiteMapManager;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * Controller to Build search results from {@link Cursor} Objects.
  *
- * Each converted {@link Cursor} has the following fields:
+ * Matching rows are first read as lightweight {@link SearchCandidate}s, and only the candidates
+ * which are returned are hydrated. Each hydrated result has the following fields:
  * - String Title
  * - String Summary
  * - int rank
@@ -59,101 +52,129 @@ public class CursorToSearchResultConverter {
 
     private final Context mContext;
 
-    private final int LONG_TITLE_LENGTH = 20;
-
-    private static final String[] whiteList = {
-            "main_toggle_wifi",
-            "main_toggle_bluetooth",
-            "main_toggle_bluetooth_obsolete",
-            "toggle_airplane",
-            "tether_settings",
-            "battery_saver",
-            "toggle_nfc",
-            "restrict_background",
-            "data_usage_enable",
-            "button_roaming_key",
-    };
-    private static final Set<String> prioritySettings = new HashSet(Arrays.asList(whiteList));
-
-
     public CursorToSearchResultConverter(Context context) {
         mContext = context;
     }
 
-    public Set<SearchResult> convertCursor(Cursor cursorResults, int baseRank,
-            SiteMapManager siteMapManager) {
+    /**
+     * Reads the candidates of a query over the candidate columns of
+     * {@link DatabaseResultTask}, in the order of the cursor, which is already ranked and holds
+     * a single row per key.
+     */
+    public List<SearchCandidate> convertCandidates(Cursor cursorResults) {
         if (cursorResults == null) {
             return null;
         }
-        final Map<String, Context> contextMap = new HashMap<>();
-        final Set<SearchResult> results = new HashSet<>();
+        final List<SearchCandidate> candidates = new ArrayList<>(cursorResults.getCount());
+        final int docIdIndex = cursorResults.getColumnIndexOrThrow(
+                IndexDatabaseHelper.SiteMapColumns.DOCID);
+        final int keyIndex = cursorResults.getColumnIndexOrThrow(
+                IndexDatabaseHelper.IndexColumns.DATA_KEY_REF);
+        final int titleIndex = cursorResults.getColumnIndexOrThrow(
+                IndexDatabaseHelper.IndexColumns.DATA_TITLE);
+        final int summaryIndex = cursorResults.getColumnIndexOrThrow(
+                IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON);
+        final int rankIndex = cursorResults.getColumnIndexOrThrow(DatabaseResultTask.MATCH_RANK);
 
         while (cursorResults.moveToNext()) {
-            SearchResult result = buildSingleSearchResultFromCursor(siteMapManager,
-                    contextMap, cursorResults, baseRank);
-            if (result != null) {
-                results.add(result);
+            final String key = cursorResults.getString(keyIndex);
+            final String title = cursorResults.getString(titleIndex);
+            if (TextUtils.isEmpty(key) || TextUtils.isEmpty(title)) {
+                // Can not be built into a SearchResult.
+                continue;
             }
+            candidates.add(new SearchCandidate(cursorResults.getLong(docIdIndex), key, title,
+                    cursorResults.getString(summaryIndex), cursorResults.getInt(rankIndex)));
         }
-        return results;
+        return candidates;
     }
 
-    public static ResultPayload getUnmarshalledPayload(byte[] marshalledPayload,
-            int payloadType) {
-        try {
-            switch (payloadType) {
-                case ResultPayload.PayloadType.INTENT:
-                    return ResultPayloadUtils.unmarshall(marshalledPayload,
-                            ResultPayload.CREATOR);
-                // TODO REFACTOR (b/62807132) Re-add inline
-//                case ResultPayload.PayloadType.INLINE_SWITCH:
-//                    return ResultPayloadUtils.unmarshall(marshalledPayload,
-//                            InlineSwitchPayload.CREATOR);
-//                case ResultPayload.PayloadType.INLINE_LIST:
-//                    return ResultPayloadUtils.unmarshall(marshalledPayload,
-//                            InlineListPayload.CREATOR);
+    /**
+     * Builds the search results of {@param candidates}, in their order, from a cursor over the
+     * hydrate columns of {@link DatabaseResultTask} for their rows.
+     */
+    public List<SearchResult> hydrate(Cursor cursor, List<SearchCandidate> candidates,
+            SiteMapManager siteMapManager) {
+        final LongSparseArray<SearchResult> results = new LongSparseArray<>(candidates.size());
+        final LongSparseArray<SearchCandidate> candidatesByDocId =
+                new LongSparseArray<>(candidates.size());
+        for (SearchCandidate candidate : candidates) {
+            candidatesByDocId.put(candidate.docId, candidate);
+        }
+        final int docIdIndex = cursor.getColumnIndexOrThrow(
+                IndexDatabaseHelper.SiteMapColumns.DOCID);
+        while (cursor.moveToNext()) {
+            final long docId = cursor.getLong(docIdIndex);
+            final SearchCandidate candidate = candidatesByDocId.get(docId);
+            if (candidate != null) {
+                final SearchResult result =
+                        buildSingleSearchResultFromCursor(siteMapManager, cursor, candidate);
+                if (result != null) {
+                    results.put(docId, result);
+                }
             }
-        } catch (BadParcelableException e) {
-            Log.w(TAG, "Error creating parcelable: " + e);
         }
-        return null;
+
+        final List<SearchResult> orderedResults = new ArrayList<>(results.size());
+        for (SearchCandidate candidate : candidates) {
+            final SearchResult result = results.get(candidate.docId);
+            if (result != null) {
+                orderedResults.add(result);
+            }
+        }
+        return orderedResults;
     }
 
     private SearchResult buildSingleSearchResultFromCursor(SiteMapManager siteMapManager,
-            Map<String, Context> contextMap, Cursor cursor, int baseRank) {
+            Cursor cursor, SearchCandidate candidate) {
         final String pkgName = cursor.getString(cursor.getColumnIndexOrThrow(
                 IndexDatabaseHelper.IndexColumns.DATA_PACKAGE));
-        final String title = cursor.getString(cursor.getColumnIndexOrThrow(
-                IndexDatabaseHelper.IndexColumns.DATA_TITLE));
-        final String summaryOn = cursor.getString(cursor.getColumnIndex(
-                IndexDatabaseHelper.IndexColumns.DATA_SUMMARY_ON));
-        final String key = cursor.getString(cursor.getColumnIndexOrThrow(
-                IndexDatabaseHelper.IndexColumns.DATA_KEY_REF));
         final String iconResStr = cursor.getString(cursor.getColumnIndexOrThrow(
                 IndexDatabaseHelper.IndexColumns.ICON));
         final int payloadType = cursor.getInt(cursor.getColumnIndexOrThrow(
                 IndexDatabaseHelper.IndexColumns.PAYLOAD_TYPE));
-        final byte[] marshalledPayload = cursor.getBlob(cursor.getColumnIndexOrThrow(
-                IndexDatabaseHelper.IndexColumns.PAYLOAD));
-        final ResultPayload payload = getUnmarshalledPayload(marshalledPayload, payloadType);
+        final ResultPayload payload = getPayload(cursor, payloadType, candidate.dataKey);
+        if (payload == null) {
+            return null;
+        }
 
         final List<String> breadcrumbs = getBreadcrumbs(siteMapManager, cursor);
-        final int rank = getRank(title, baseRank, key);
-        final Drawable icon = getIconForPackage(contextMap, pkgName, iconResStr);
+        final Drawable icon = getIconForPackage(pkgName, iconResStr);
 
         final SearchResult.Builder builder = new SearchResult.Builder()
-                .setDataKey(key)
-                .setTitle(title)
-                .setSummary(summaryOn)
+                .setDataKey(candidate.dataKey)
+                .setTitle(candidate.title)
+                .setSummary(candidate.summary)
                 .addBreadcrumbs(breadcrumbs)
-                .setRank(rank)
+                .setRank(candidate.rank)
                 .setIcon(icon)
                 .setPayload(payload);
         return builder.build();
     }
 
-    private Drawable getIconForPackage(Map<String, Context> contextMap, String pkgName,
-            String iconResStr) {
+    /**
+     * @return the payload of the result, whose Intent is only built once it is needed.
+     */
+    private ResultPayload getPayload(Cursor cursor, int payloadType, String key) {
+        // TODO REFACTOR (b/62807132) Re-add inline payloads
+        if (payloadType != ResultPayload.PayloadType.INTENT) {
+            return null;
+        }
+        return new IndexedResultPayload(mContext,
+                cursor.getString(cursor.getColumnIndexOrThrow(
+                        IndexDatabaseHelper.IndexColumns.INTENT_ACTION)),
+                cursor.getString(cursor.getColumnIndexOrThrow(
+                        IndexDatabaseHelper.IndexColumns.INTENT_TARGET_PACKAGE)),
+                cursor.getString(cursor.getColumnIndexOrThrow(
+                        IndexDatabaseHelper.IndexColumns.INTENT_TARGET_CLASS)),
+                cursor.getString(cursor.getColumnIndexOrThrow(
+                        IndexDatabaseHelper.IndexColumns.CLASS_NAME)),
+                key,
+                cursor.getString(cursor.getColumnIndexOrThrow(
+                        IndexDatabaseHelper.IndexColumns.SCREEN_TITLE)));
+    }
+
+    private Drawable getIconForPackage(String pkgName, String iconResStr) {
         if (TextUtils.isEmpty(pkgName)) {
             return null;
         }
@@ -161,19 +182,13 @@ public class CursorToSearchResultConverter {
         if (iconId == 0) {
             return null;
         }
-        Context packageContext = contextMap.get(pkgName);
-        if (packageContext == null) {
-            try {
-                final Context themedAppContext = new ContextThemeWrapper(
-                        mContext, R.style.Theme_Settings);
-                packageContext = new ContextThemeWrapper(
-                        themedAppContext.createPackageContext(pkgName, 0),
-                        themedAppContext.getTheme());
-                contextMap.put(pkgName, packageContext);
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Cannot create Context for package: " + pkgName);
-                return null;
-            }
+        final Context packageContext;
+        try {
+            packageContext = PackageContextCache.getInstance(mContext)
+                    .getThemedPackageContext(pkgName);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Cannot create Context for package: " + pkgName);
+            return null;
         }
         try {
             final Drawable drawable = packageContext.getDrawable(iconId);
@@ -186,6 +201,12 @@ public class CursorToSearchResultConverter {
     }
 
     private List<String> getBreadcrumbs(SiteMapManager siteMapManager, Cursor cursor) {
+        final String breadcrumbs = cursor.getString(cursor.getColumnIndexOrThrow(
+                IndexDatabaseHelper.IndexColumns.BREADCRUMBS));
+        if (breadcrumbs != null) {
+            return SiteMapManager.parseBreadcrumbs(breadcrumbs);
+        }
+        // Rows written by an ongoing indexing do not have their breadcrumbs yet.
         final String screenTitle = cursor.getString(cursor.getColumnIndexOrThrow(
                 IndexDatabaseHelper.IndexColumns.SCREEN_TITLE));
         final String screenClass = cursor.getString(cursor.getColumnIndexOrThrow(
@@ -193,29 +214,4 @@ public class CursorToSearchResultConverter {
         return siteMapManager == null ? null : siteMapManager.buildBreadCrumb(mContext,
                 screenClass, screenTitle);
     }
-
-    /**
-     * Uses the breadcrumbs to determine the offset to the base rank.
-     * There are three checks
-     * A) If the result is prioritized and the highest base level
-     * B) If the query matches the highest level menu title
-     * C) If the query is longer than 20
-     *
-     * If the query matches A, set it to TOP_RANK
-     * If the query matches B, the offset is 0.
-     * If the query matches C, the offset is 1
-     *
-     * @param title    of the result.
-     * @param baseRank of the result. Lower if it's a better result.
-     */
-    private int getRank(String title, int baseRank, String key) {
-        // The result can only be prioritized if it is a top ranked result.
-        if (prioritySettings.contains(key) && baseRank < BASE_RANKS[1]) {
-            return TOP_RANK;
-        }
-        if (title.length() > LONG_TITLE_LENGTH) {
-            return baseRank + 1;
-        }
-        return baseRank;
-    }
-}
\ No newline at end of file
+}
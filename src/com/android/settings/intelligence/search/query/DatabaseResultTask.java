@@ -16,30 +16,36 @@
 
 package com.android.settings.intelligence.search.query;
 
+import static com.android.settings.intelligence.search.SearchResult.TOP_RANK;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.SiteMapColumns;
 import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables
         .TABLE_PREFS_INDEX;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables
+        .TABLE_PREFS_INDEX_FTS;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import androidx.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.Log;
 import android.util.Pair;
 
+import com.android.settings.intelligence.R;
 import com.android.settings.intelligence.nano.SettingsIntelligenceLogProto;
 import com.android.settings.intelligence.overlay.FeatureFactory;
 import com.android.settings.intelligence.search.SearchFeatureProvider;
 import com.android.settings.intelligence.search.SearchResult;
+import com.android.settings.intelligence.search.indexing.IndexData;
 import com.android.settings.intelligence.search.indexing.IndexDatabaseHelper;
+import com.android.settings.intelligence.search.indexing.TextNormalizer;
 import com.android.settings.intelligence.search.sitemap.SiteMapManager;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -54,21 +60,30 @@ public class DatabaseResultTask extends SearchQueryTask.QueryWorker {
 
     private static final String TAG = "DatabaseResultTask";
 
-    public static final String[] SELECT_COLUMNS = {
+    /**
+     * Columns read for every matching row, to rank it.
+     */
+    public static final String[] CANDIDATE_COLUMNS = {
+            SiteMapColumns.DOCID,
+            IndexColumns.DATA_KEY_REF,
             IndexColumns.DATA_TITLE,
-            IndexColumns.DATA_SUMMARY_ON,
-            IndexColumns.DATA_SUMMARY_OFF,
+            IndexColumns.DATA_SUMMARY_ON
+    };
+
+    /**
+     * Columns read only for the rows which are returned as results.
+     */
+    public static final String[] HYDRATE_COLUMNS = {
+            SiteMapColumns.DOCID,
             IndexColumns.CLASS_NAME,
             IndexColumns.SCREEN_TITLE,
+            IndexColumns.BREADCRUMBS,
             IndexColumns.ICON,
             IndexColumns.INTENT_ACTION,
             IndexColumns.DATA_PACKAGE,
-            IndexColumns.DATA_AUTHORITY,
             IndexColumns.INTENT_TARGET_PACKAGE,
             IndexColumns.INTENT_TARGET_CLASS,
-            IndexColumns.DATA_KEY_REF,
-            IndexColumns.PAYLOAD_TYPE,
-            IndexColumns.PAYLOAD
+            IndexColumns.PAYLOAD_TYPE
     };
 
     public static final String[] MATCH_COLUMNS_PRIMARY = {
@@ -79,10 +94,18 @@ public class DatabaseResultTask extends SearchQueryTask.QueryWorker {
     public static final String[] MATCH_COLUMNS_SECONDARY = {
             IndexColumns.DATA_SUMMARY_ON,
             IndexColumns.DATA_SUMMARY_ON_NORMALIZED,
-            IndexColumns.DATA_SUMMARY_OFF,
-            IndexColumns.DATA_SUMMARY_OFF_NORMALIZED,
     };
 
+    public static final String[] MATCH_COLUMNS_TERTIARY = {
+            IndexColumns.DATA_KEYWORDS,
+            IndexColumns.DATA_ENTRIES
+    };
+
+    /**
+     * Rank of a candidate, computed by the candidate query.
+     */
+    public static final String MATCH_RANK = "match_rank";
+
     public static final int QUERY_WORKER_ID =
             SettingsIntelligenceLogProto.SettingsIntelligenceEvent.SEARCH_QUERY_DATABASE;
 
@@ -97,23 +120,53 @@ public class DatabaseResultTask extends SearchQueryTask.QueryWorker {
      */
     static final int[] BASE_RANKS = {1, 3, 7, 9};
 
+    /**
+     * Columns holding the text normalized by {@link TextNormalizer#normalizeForIndex(String)},
+     * which are matched with the normalized query.
+     */
+    private static final List<String> NORMALIZED_COLUMNS = Arrays.asList(
+            IndexColumns.DATA_TITLE_NORMALIZED,
+            IndexColumns.DATA_SUMMARY_ON_NORMALIZED);
+
+    /**
+     * Bind arguments of the candidate query: the phrases matching the first word of a column and
+     * any word of a column, for the query and for the normalized query.
+     */
+    private static final String FIRST_WORD_PHRASE_ARG = "?1";
+    private static final String PHRASE_ARG = "?2";
+    private static final String NORMALIZED_FIRST_WORD_PHRASE_ARG = "?3";
+    private static final String NORMALIZED_PHRASE_ARG = "?4";
+
+    /**
+     * Finds and ranks the candidates with a single statement. Each match column of each tier of
+     * {@link #BASE_RANKS} is a full text match, which computes the rank of its rows. A key
+     * matched by several rows keeps its best ranked row, and the rows come out ordered by rank.
+     */
+    private static final String SELECT_CANDIDATES = "SELECT "
+            + TextUtils.join(", ", CANDIDATE_COLUMNS)
+            + ", MIN(" + MATCH_RANK + ") AS " + MATCH_RANK
+            + " FROM (" + buildTierSelects(BASE_RANKS[0], MATCH_COLUMNS_PRIMARY, true)
+            + " UNION ALL " + buildTierSelects(BASE_RANKS[1], MATCH_COLUMNS_PRIMARY, false)
+            + " UNION ALL " + buildTierSelects(BASE_RANKS[2], MATCH_COLUMNS_SECONDARY, false)
+            + " UNION ALL " + buildTierSelects(BASE_RANKS[3], MATCH_COLUMNS_TERTIARY, false)
+            + ") GROUP BY " + IndexColumns.DATA_KEY_REF
+            + " ORDER BY " + MATCH_RANK
+            + " LIMIT ";
+
     public static SearchQueryTask newTask(Context context, SiteMapManager siteMapManager,
             String query) {
         return new SearchQueryTask(new DatabaseResultTask(context, siteMapManager, query));
     }
 
-    public final String[] MATCH_COLUMNS_TERTIARY = {
-            IndexColumns.DATA_KEYWORDS,
-            IndexColumns.DATA_ENTRIES
-    };
-
     private final CursorToSearchResultConverter mConverter;
     private final SearchFeatureProvider mFeatureProvider;
+    private final int mMaxResults;
 
     public DatabaseResultTask(Context context, SiteMapManager siteMapManager, String queryText) {
         super(context, siteMapManager, queryText);
         mConverter = new CursorToSearchResultConverter(context);
         mFeatureProvider = FeatureFactory.get(context).searchFeatureProvider();
+        mMaxResults = context.getResources().getInteger(R.integer.max_database_search_results);
     }
 
     @Override
@@ -135,179 +188,184 @@ public class DatabaseResultTask extends SearchQueryTask.QueryWorker {
             executorService.execute(rankerTask);
         }
 
-        final Set<SearchResult> resultSet = new HashSet<>();
-
-        resultSet.addAll(firstWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[0]));
-        resultSet.addAll(secondaryWordQuery(MATCH_COLUMNS_PRIMARY, BASE_RANKS[1]));
-        resultSet.addAll(anyWordQuery(MATCH_COLUMNS_SECONDARY, BASE_RANKS[2]));
-        resultSet.addAll(anyWordQuery(MATCH_COLUMNS_TERTIARY, BASE_RANKS[3]));
+        final String phrase = buildMatchPhrase(mQuery);
+        if (phrase == null) {
+            return new ArrayList<>();
+        }
+        String normalizedPhrase = buildMatchPhrase(TextNormalizer.normalizeForIndex(mQuery));
+        if (normalizedPhrase == null) {
+            normalizedPhrase = phrase;
+        }
+        // The dynamic ranking may promote any candidate, so it needs all of them.
+        final int limit = rankerTask != null ? -1 : mMaxResults;
+        return hydrate(rankCandidates(queryCandidates(phrase, normalizedPhrase, limit),
+                rankerTask));
+    }
 
+    private List<SearchCandidate> rankCandidates(List<SearchCandidate> candidates,
+            FutureTask<List<Pair<String, Float>>> rankerTask) {
         // Try to retrieve the scores in time. Otherwise use static ranking.
         if (rankerTask != null) {
             try {
                 final long timeoutMs = mFeatureProvider.smartSearchRankingTimeoutMs(mContext);
                 List<Pair<String, Float>> searchRankScores = rankerTask.get(timeoutMs,
                         TimeUnit.MILLISECONDS);
-                return getDynamicRankedResults(resultSet, searchRankScores);
+                return getDynamicRankedResults(candidates, searchRankScores);
             } catch (TimeoutException | InterruptedException | ExecutionException e) {
                 Log.d(TAG, "Error waiting for result scores: " + e);
             }
         }
 
-        List<SearchResult> resultList = new ArrayList<>(resultSet);
-        Collections.sort(resultList);
-        return resultList;
-    }
-
-    // TODO (b/33577327) Retrieve all search results with a single query.
-
-    /**
-     * Creates and executes the query which matches prefixes of the first word of the given
-     * columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank     The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> firstWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = mQuery + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
-
-        return query(whereClause, selection, baseRank);
-    }
-
-    /**
-     * Creates and executes the query which matches prefixes of the non-first words of the
-     * given columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank     The highest rank achievable by these results
-     * @return A set of the matching results.
-     */
-    private Set<SearchResult> secondaryWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildSingleWordWhereClause(matchColumns);
-        final String query = "% " + mQuery + "%";
-        final String[] selection = buildSingleWordSelection(query, matchColumns.length);
-
-        return query(whereClause, selection, baseRank);
+        // The candidates are already ordered by their static rank.
+        return candidates;
     }
 
     /**
-     * Creates and executes the query which matches prefixes of the any word of the given
-     * columns.
-     *
-     * @param matchColumns The columns to match on
-     * @param baseRank     The highest rank achievable by these results
-     * @return A set of the matching results.
+     * Builds the search results of the best ranked {@param candidates}. Icons, breadcrumbs and
+     * payloads are only loaded for these, not for every matching row.
      */
-    private Set<SearchResult> anyWordQuery(String[] matchColumns, int baseRank) {
-        final String whereClause = buildTwoWordWhereClause(matchColumns);
-        final String[] selection = buildAnyWordSelection(matchColumns.length * 2);
+    private List<SearchResult> hydrate(List<SearchCandidate> candidates) {
+        if (candidates.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (candidates.size() > mMaxResults) {
+            candidates = candidates.subList(0, mMaxResults);
+        }
+        final StringBuilder whereClause = new StringBuilder(SiteMapColumns.DOCID)
+                .append(" IN (");
+        final String[] selection = new String[candidates.size()];
+        for (int i = 0; i < selection.length; i++) {
+            whereClause.append(i > 0 ? ", ?" : "?");
+            selection[i] = Long.toString(candidates.get(i).docId);
+        }
+        whereClause.append(')');
 
-        return query(whereClause, selection, baseRank);
+        final SQLiteDatabase database =
+                IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
+        try (Cursor resultCursor = database.query(TABLE_PREFS_INDEX, HYDRATE_COLUMNS,
+                whereClause.toString(), selection, null, null, null)) {
+            return mConverter.hydrate(resultCursor, candidates, mSiteMapManager);
+        }
     }
 
     /**
-     * Generic method used by all of the query methods above to execute a query.
+     * Queries the full text index for the rows matching {@param phrase} in any of the match
+     * columns, or {@param normalizedPhrase} in the normalized ones.
      *
-     * @param whereClause Where clause for the SQL query which uses bindings.
-     * @param selection   List of the transformed query to match each bind in the whereClause
-     * @param baseRank    The highest rank achievable by these results.
-     * @return A set of the matching results.
+     * @param limit the maximum number of candidates, or -1 for all of them.
+     * @return the matching candidates, ordered by their rank.
      */
-    private Set<SearchResult> query(String whereClause, String[] selection, int baseRank) {
+    private List<SearchCandidate> queryCandidates(String phrase, String normalizedPhrase,
+            int limit) {
         final SQLiteDatabase database =
                 IndexDatabaseHelper.getInstance(mContext).getReadableDatabase();
-        try (Cursor resultCursor = database.query(TABLE_PREFS_INDEX, SELECT_COLUMNS,
-                whereClause,
-                selection, null, null, null)) {
-            return mConverter.convertCursor(resultCursor, baseRank, mSiteMapManager);
+        final String[] selection = {
+                "\"^" + phrase + "\"",
+                "\"" + phrase + "\"",
+                "\"^" + normalizedPhrase + "\"",
+                "\"" + normalizedPhrase + "\""
+        };
+        try (Cursor resultCursor = database.rawQuery(SELECT_CANDIDATES + limit, selection)) {
+            return mConverter.convertCandidates(resultCursor);
         }
     }
 
     /**
-     * Builds the SQLite WHERE clause that matches all matchColumns for a single query.
+     * Builds the FTS phrase which matches the query as the prefix of a word. The query is split
+     * into terms the way the index tokenizes text, and matched as a phrase whose last term is a
+     * prefix.
      *
-     * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
+     * @return the phrase, without its quotes, or null if the query has no term to match.
      */
-    private static String buildSingleWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
-        final int count = matchColumns.length;
-        for (int n = 0; n < count; n++) {
-            sb.append(matchColumns[n]);
-            sb.append(" like ? ");
-            if (n < count - 1) {
-                sb.append(" OR ");
+    @VisibleForTesting
+    static String buildMatchPhrase(String query) {
+        if (query == null) {
+            return null;
+        }
+        final StringBuilder phrase = new StringBuilder();
+        boolean isInTerm = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            // The simple tokenizer only separates terms on ASCII characters which are not
+            // letters or digits. This also drops all FTS query syntax from the query.
+            final boolean isTermChar = c >= 0x80 || Character.isLetterOrDigit(c);
+            if (isTermChar) {
+                if (!isInTerm && phrase.length() > 0) {
+                    phrase.append(' ');
+                }
+                phrase.append(c);
             }
+            isInTerm = isTermChar;
         }
-        sb.append(") AND enabled = 1");
-        return sb.toString();
+        if (phrase.length() == 0) {
+            return null;
+        }
+        return phrase.append('*').toString();
     }
 
     /**
-     * Builds the SQLite WHERE clause that matches all matchColumns to two different queries.
-     *
-     * @param matchColumns List of columns that will be used for matching.
-     * @return The constructed WHERE clause.
+     * Builds the selects of a tier, one per column of {@param columns} as a full text match only
+     * accepts a phrase for a single column. The full text index holds the position of each word
+     * in its column, so {@param isFirstWord} tiers only match the first word of the column. Each
+     * select computes the rank of its rows from {@param baseRank} and their
+     * {@link IndexColumns#STATIC_RANK}. There are two checks:
+     * A) If the result is prioritized and the highest base level, its rank is TOP_RANK
+     * B) If the title is long, the offset to the base rank is 1
      */
-    private static String buildTwoWordWhereClause(String[] matchColumns) {
-        StringBuilder sb = new StringBuilder(" (");
-        final int count = matchColumns.length;
-        for (int n = 0; n < count; n++) {
-            sb.append(matchColumns[n]);
-            sb.append(" like ? OR ");
-            sb.append(matchColumns[n]);
-            sb.append(" like ?");
-            if (n < count - 1) {
-                sb.append(" OR ");
+    private static String buildTierSelects(int baseRank, String[] columns, boolean isFirstWord) {
+        final StringBuilder selects = new StringBuilder();
+        for (String column : columns) {
+            if (selects.length() > 0) {
+                selects.append(" UNION ALL ");
             }
+            final String matchArg;
+            if (NORMALIZED_COLUMNS.contains(column)) {
+                matchArg = isFirstWord ? NORMALIZED_FIRST_WORD_PHRASE_ARG : NORMALIZED_PHRASE_ARG;
+            } else {
+                matchArg = isFirstWord ? FIRST_WORD_PHRASE_ARG : PHRASE_ARG;
+            }
+            selects.append(buildTierSelect(baseRank, column, matchArg));
         }
-        sb.append(") AND enabled = 1");
-        return sb.toString();
+        return selects.toString();
     }
 
-    /**
-     * Fills out the selection array to match the query as the prefix of a single word.
-     *
-     * @param size is the number of columns to be matched.
-     */
-    private String[] buildSingleWordSelection(String query, int size) {
-        String[] selection = new String[size];
-
-        for (int i = 0; i < size; i++) {
-            selection[i] = query;
+    private static String buildTierSelect(int baseRank, String column, String matchArg) {
+        final StringBuilder select = new StringBuilder("SELECT ");
+        for (String candidateColumn : CANDIDATE_COLUMNS) {
+            select.append(TABLE_PREFS_INDEX).append('.').append(candidateColumn)
+                    .append(" AS ").append(candidateColumn).append(", ");
         }
-        return selection;
-    }
-
-    /**
-     * Fills out the selection array to match the query as the prefix of a word.
-     *
-     * @param size is twice the number of columns to be matched. The first match is for the
-     *             prefix
-     *             of the first word in the column. The second match is for any subsequent word
-     *             prefix match.
-     */
-    private String[] buildAnyWordSelection(int size) {
-        String[] selection = new String[size];
-        final String query = mQuery + "%";
-        final String subStringQuery = "% " + mQuery + "%";
-
-        for (int i = 0; i < (size - 1); i += 2) {
-            selection[i] = query;
-            selection[i + 1] = subStringQuery;
+        final String staticRank = TABLE_PREFS_INDEX + "." + IndexColumns.STATIC_RANK;
+        // The result can only be prioritized if it is a top ranked result.
+        if (baseRank < BASE_RANKS[1]) {
+            select.append("CASE WHEN ").append(staticRank).append(" & ")
+                    .append(IndexData.STATIC_RANK_PRIORITIZED)
+                    .append(" THEN ").append(TOP_RANK).append(" ELSE ");
+        }
+        select.append(baseRank).append(" + (").append(staticRank).append(" & ")
+                .append(IndexData.STATIC_RANK_LONG_TITLE).append(')');
+        if (baseRank < BASE_RANKS[1]) {
+            select.append(" END");
         }
-        return selection;
+        return select.append(" AS ").append(MATCH_RANK)
+                .append(" FROM ").append(TABLE_PREFS_INDEX_FTS)
+                .append(" JOIN ").append(TABLE_PREFS_INDEX)
+                .append(" ON ").append(TABLE_PREFS_INDEX).append('.').append(SiteMapColumns.DOCID)
+                .append(" = ").append(TABLE_PREFS_INDEX_FTS).append('.')
+                .append(SiteMapColumns.DOCID)
+                .append(" WHERE ").append(TABLE_PREFS_INDEX_FTS).append('.').append(column)
+                .append(" MATCH ").append(matchArg)
+                .append(" AND ")
+                .append(IndexColumns.ENABLED).append(" = 1")
+                .toString();
     }
 
-    private List<SearchResult> getDynamicRankedResults(Set<SearchResult> unsortedSet,
+    private List<SearchCandidate> getDynamicRankedResults(List<SearchCandidate> unsortedSet,
             final List<Pair<String, Float>> searchRankScores) {
-        final TreeSet<SearchResult> dbResultsSortedByScores = new TreeSet<>(
-                new Comparator<SearchResult>() {
+        final TreeSet<SearchCandidate> dbResultsSortedByScores = new TreeSet<>(
+                new Comparator<SearchCandidate>() {
                     @Override
-                    public int compare(SearchResult o1, SearchResult o2) {
+                    public int compare(SearchCandidate o1, SearchCandidate o2) {
                         final float score1 = getRankingScoreByKey(searchRankScores, o1.dataKey);
                         final float score2 = getRankingScoreByKey(searchRankScores, o2.dataKey);
                         if (score1 > score2) {
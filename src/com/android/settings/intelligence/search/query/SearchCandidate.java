@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.android.settings.intelligence.search.query;
+
+/**
+ * A matching row of the search index, holding only what is needed to rank it. Only the
+ * candidates which are returned as results are then hydrated into a
+ * {@link com.android.settings.intelligence.search.SearchResult}.
+ *
+ * Candidates have no order of their own, they are ordered by the query of
+ * {@link DatabaseResultTask} which finds them.
+ */
+public class SearchCandidate {
+
+    /**
+     * The docid of the row in the search index.
+     */
+    public final long docId;
+    public final String dataKey;
+    public final String title;
+    public final String summary;
+    public final int rank;
+
+    public SearchCandidate(long docId, String dataKey, String title, String summary, int rank) {
+        this.docId = docId;
+        this.dataKey = dataKey;
+        this.title = title;
+        this.summary = summary;
+        this.rank = rank;
+    }
+}
@@ -18,7 +18,7 @@ package com.android.settings.intelligence.search.query;
 
 import android.text.TextUtils;
 
-import com.android.settings.intelligence.search.indexing.IndexData;
+import com.android.settings.intelligence.search.indexing.TextNormalizer;
 
 import java.util.Locale;
 
@@ -53,7 +53,7 @@ public class SearchQueryUtils {
         }
 
         if (Locale.getDefault().equals(Locale.JAPAN)) {
-            resultName = IndexData.normalizeJapaneseString(resultName);
+            resultName = TextNormalizer.normalizeJapaneseString(resultName);
         }
 
         final char[] queryTokens = query.toLowerCase().toCharArray();
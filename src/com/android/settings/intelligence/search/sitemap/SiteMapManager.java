@@ -27,7 +27,11 @@ import com.android.settings.intelligence.search.indexing.IndexDatabaseHelper;
 import com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.SiteMapColumns;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class SiteMapManager {
 
@@ -41,6 +45,11 @@ public class SiteMapManager {
             SiteMapColumns.CHILD_TITLE
     };
 
+    /**
+     * Separates the titles of serialized breadcrumbs, it does not appear in titles.
+     */
+    private static final String BREADCRUMB_SEPARATOR = "\u001F";
+
     private final List<SiteMapPair> mPairs = new ArrayList<>();
 
     private boolean mInitialized;
@@ -56,6 +65,15 @@ public class SiteMapManager {
     public synchronized List<String> buildBreadCrumb(Context context, String clazz,
             String screenTitle) {
         init(context);
+        return buildBreadCrumb(clazz, screenTitle);
+    }
+
+    /**
+     * Same as {@link #buildBreadCrumb(Context, String, String)}, for a site map which has been
+     * initialized with {@link #init(SQLiteDatabase)}.
+     */
+    @WorkerThread
+    public synchronized List<String> buildBreadCrumb(String clazz, String screenTitle) {
         final long startTime = System.currentTimeMillis();
         final List<String> breadcrumbs = new ArrayList<>();
         if (!mInitialized) {
@@ -85,6 +103,53 @@ public class SiteMapManager {
         }
     }
 
+    /**
+     * @return {@param classNames} and the classes of all screens below them in the site map,
+     * whose breadcrumbs go through one of {@param classNames}. The site map must have been
+     * initialized with {@link #init(SQLiteDatabase)}.
+     */
+    @WorkerThread
+    public synchronized Set<String> getSubtreeClasses(Collection<String> classNames) {
+        final Set<String> subtree = new HashSet<>(classNames);
+        final List<String> pending = new ArrayList<>(subtree);
+        for (int i = 0; i < pending.size(); i++) {
+            final String parentClass = pending.get(i);
+            if (parentClass == null) {
+                continue;
+            }
+            for (SiteMapPair pair : mPairs) {
+                if (TextUtils.equals(parentClass, pair.getParentClass())
+                        && subtree.add(pair.getChildClass())) {
+                    pending.add(pair.getChildClass());
+                }
+            }
+        }
+        return subtree;
+    }
+
+    /**
+     * @return {@param breadcrumbs} as a single string, to be stored in the index.
+     */
+    public static String serializeBreadcrumbs(List<String> breadcrumbs) {
+        return TextUtils.join(BREADCRUMB_SEPARATOR, breadcrumbs);
+    }
+
+    /**
+     * @return the breadcrumbs serialized by {@link #serializeBreadcrumbs(List)}.
+     */
+    public static List<String> parseBreadcrumbs(String serializedBreadcrumbs) {
+        return new ArrayList<>(Arrays.asList(
+                TextUtils.split(serializedBreadcrumbs, BREADCRUMB_SEPARATOR)));
+    }
+
+    /**
+     * Drops the loaded {@link SiteMapPair}s, so they are read again from the index on next use.
+     */
+    public synchronized void invalidate() {
+        mPairs.clear();
+        mInitialized = false;
+    }
+
     /**
      * Initialize a list of {@link SiteMapPair}s. Each pair knows about a single parent-child
      * page relationship.
@@ -95,10 +160,21 @@ public class SiteMapManager {
             // Make sure only init once.
             return;
         }
-        final long startTime = System.currentTimeMillis();
         // First load site map from static index table.
         final Context appContext = context.getApplicationContext();
-        final SQLiteDatabase db = IndexDatabaseHelper.getInstance(appContext).getReadableDatabase();
+        init(IndexDatabaseHelper.getInstance(appContext).getReadableDatabase());
+    }
+
+    /**
+     * Initialize the {@link SiteMapPair}s from {@param db}, such as the database which is being
+     * indexed, instead of the committed index.
+     */
+    @WorkerThread
+    public synchronized void init(SQLiteDatabase db) {
+        if (mInitialized) {
+            return;
+        }
+        final long startTime = System.currentTimeMillis();
         Cursor sitemap = db.query(IndexDatabaseHelper.Tables.TABLE_SITE_MAP, SITE_MAP_COLUMNS, null,
                 null, null, null, null);
         while (sitemap.moveToNext()) {
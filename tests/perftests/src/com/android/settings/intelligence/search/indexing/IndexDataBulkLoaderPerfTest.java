@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.IndexColumns;
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_PREFS_INDEX;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares inserting index rows through {@link IndexDataBulkLoader} with the per-row
+ * {@link ContentValues} and {@link SQLiteDatabase#replaceOrThrow} inserts it replaced.
+ *
+ * Each iteration inserts {@link #ROW_COUNT} rows into an in-memory search database inside one
+ * transaction, which is rolled back outside of the measured time.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IndexDataBulkLoaderPerfTest {
+
+    private static final int ROW_COUNT = 500;
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private SQLiteDatabase mDatabase;
+    private List<IndexData> mIndexData;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mDatabase = SQLiteDatabase.create(null /* factory */);
+        new IndexDatabaseHelper(context).onCreate(mDatabase);
+        mIndexData = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            mIndexData.add(new IndexData.Builder()
+                    .setTitle("Wi\u2011Fi preference " + i)
+                    .setSummaryOn("Connect to wireless networks " + i)
+                    .setEntries("Always|Only when plugged in|Never")
+                    .setKeywords("wifi, wireless, network, " + i)
+                    .setClassName("com.android.settings.wifi.WifiSettings" + (i % 20))
+                    .setScreenTitle("Wi\u2011Fi " + (i % 20))
+                    .setPackageName("com.android.settings")
+                    .setAuthority("com.android.settings")
+                    .setIntentAction("android.settings.WIFI_SETTINGS")
+                    .setIntentTargetPackage("com.android.settings")
+                    .setIntentTargetClass("com.android.settings.Settings$WifiSettingsActivity")
+                    .setIconResId(i)
+                    .setEnabled(true)
+                    .setKey("wifi_preference_" + i)
+                    .build());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void insertIndexData_contentValues() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mDatabase.beginTransaction();
+            for (IndexData dataRow : mIndexData) {
+                insertWithContentValues(dataRow);
+            }
+            state.pauseTiming();
+            mDatabase.endTransaction();
+            state.resumeTiming();
+        }
+    }
+
+    @Test
+    public void insertIndexData_bulkLoader() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mDatabase.beginTransaction();
+            final IndexDataBulkLoader loader = new IndexDataBulkLoader(mDatabase);
+            for (IndexData dataRow : mIndexData) {
+                loader.insertIndexData(dataRow);
+            }
+            loader.close();
+            state.pauseTiming();
+            mDatabase.endTransaction();
+            state.resumeTiming();
+        }
+    }
+
+    /**
+     * The insert of a single row before {@link IndexDataBulkLoader}.
+     */
+    private void insertWithContentValues(IndexData dataRow) {
+        if (TextUtils.isEmpty(dataRow.normalizedTitle)) {
+            return;
+        }
+        final ContentValues values = new ContentValues();
+        values.put(IndexColumns.DATA_TITLE, dataRow.updatedTitle);
+        values.put(IndexColumns.DATA_TITLE_NORMALIZED, dataRow.normalizedTitle);
+        values.put(IndexColumns.DATA_SUMMARY_ON, dataRow.updatedSummaryOn);
+        values.put(IndexColumns.DATA_SUMMARY_ON_NORMALIZED, dataRow.normalizedSummaryOn);
+        values.put(IndexColumns.DATA_ENTRIES, dataRow.entries);
+        values.put(IndexColumns.DATA_KEYWORDS, dataRow.spaceDelimitedKeywords);
+        values.put(IndexColumns.DATA_PACKAGE, dataRow.packageName);
+        values.put(IndexColumns.DATA_AUTHORITY, dataRow.authority);
+        values.put(IndexColumns.CLASS_NAME, dataRow.className);
+        values.put(IndexColumns.SCREEN_TITLE, dataRow.screenTitle);
+        values.put(IndexColumns.INTENT_ACTION, dataRow.intentAction);
+        values.put(IndexColumns.INTENT_TARGET_PACKAGE, dataRow.intentTargetPackage);
+        values.put(IndexColumns.INTENT_TARGET_CLASS, dataRow.intentTargetClass);
+        values.put(IndexColumns.ICON, dataRow.iconResId);
+        values.put(IndexColumns.ENABLED, dataRow.enabled);
+        values.put(IndexColumns.DATA_KEY_REF, dataRow.key);
+        values.put(IndexColumns.PAYLOAD_TYPE, dataRow.payloadType);
+        values.put(IndexColumns.CONTENT_DIGEST, dataRow.contentDigest);
+        values.put(IndexColumns.STATIC_RANK, dataRow.staticRank);
+        mDatabase.replaceOrThrow(TABLE_PREFS_INDEX, null /* nullColumnHack */, values);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.Normalizer;
+import java.util.regex.Pattern;
+
+/**
+ * Compares {@link TextNormalizer} with the regular expression based normalization it replaced,
+ * on a sample of Latin, accented, full-width and kana text. TextNormalizerTest checks that both
+ * produce the same output.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TextNormalizerPerfTest {
+
+    private static final String[] SAMPLES = {
+            "Wi\u2011Fi",
+            "Bluetooth",
+            "Screen timeout",
+            "Display size and text",
+            "Mobile data usage",
+            "Préférences réseau",
+            "Über das Telefon",
+            "Modo de ahorro de batería",
+            "Ｗｉ－Ｆｉ",
+            "ネットワークとインターネット",
+            "ぶるーとぅーす",
+            "画面の明るさ",
+    };
+
+    private static final String[] KEYWORDS = {
+            "wifi, wi-fi, network connection, internet, wireless, data, wi fi",
+            "display, screen, brightness,   timeout, sleep",
+            "battery, power usage,usage, saver",
+    };
+
+    @Rule
+    public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Test
+    public void normalizeString_regex() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String sample : SAMPLES) {
+                RegexNormalizer.normalizeString(sample);
+            }
+        }
+    }
+
+    @Test
+    public void normalizeString_textNormalizer() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String sample : SAMPLES) {
+                TextNormalizer.normalizeString(sample);
+            }
+        }
+    }
+
+    @Test
+    public void normalizeJapaneseString_regex() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String sample : SAMPLES) {
+                RegexNormalizer.normalizeJapaneseString(sample);
+            }
+        }
+    }
+
+    @Test
+    public void normalizeJapaneseString_textNormalizer() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String sample : SAMPLES) {
+                TextNormalizer.normalizeJapaneseString(sample);
+            }
+        }
+    }
+
+    @Test
+    public void normalizeKeywords_regex() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String keywords : KEYWORDS) {
+                RegexNormalizer.normalizeKeywords(keywords);
+            }
+        }
+    }
+
+    @Test
+    public void normalizeKeywords_textNormalizer() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (String keywords : KEYWORDS) {
+                TextNormalizer.normalizeKeywords(keywords);
+            }
+        }
+    }
+
+    /**
+     * The normalization of {@link IndexData} before {@link TextNormalizer}.
+     */
+    private static class RegexNormalizer {
+
+        private static final String NON_BREAKING_HYPHEN = "\u2011";
+        private static final String EMPTY = "";
+        private static final String HYPHEN = "-";
+        private static final String SPACE = " ";
+        // Regex matching a comma, and any number of subsequent white spaces.
+        private static final String LIST_DELIMITERS = "[,]\\s*";
+
+        private static final Pattern REMOVE_DIACRITICALS_PATTERN
+                = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+
+        static String normalizeKeywords(String input) {
+            return (input != null) ? input.replaceAll(LIST_DELIMITERS, SPACE) : EMPTY;
+        }
+
+        static String normalizeHyphen(String input) {
+            return (input != null) ? input.replaceAll(NON_BREAKING_HYPHEN, HYPHEN) : EMPTY;
+        }
+
+        static String normalizeString(String input) {
+            final String normalizedHypen = normalizeHyphen(input);
+            final String nohyphen =
+                    (input != null) ? normalizedHypen.replaceAll(HYPHEN, EMPTY) : EMPTY;
+            final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFD);
+
+            return REMOVE_DIACRITICALS_PATTERN.matcher(normalized).replaceAll("").toLowerCase();
+        }
+
+        static String normalizeJapaneseString(String input) {
+            final String nohyphen = (input != null) ? input.replaceAll(HYPHEN, EMPTY) : EMPTY;
+            final String normalized = Normalizer.normalize(nohyphen, Normalizer.Form.NFKD);
+            final StringBuffer sb = new StringBuffer();
+            final int length = normalized.length();
+            for (int i = 0; i < length; i++) {
+                char c = normalized.charAt(i);
+                // Convert Hiragana to full-width Katakana
+                if (c >= '\u3041' && c <= '\u3096') {
+                    sb.append((char) (c - '\u3041' + '\u30A1'));
+                } else {
+                    sb.append(c);
+                }
+            }
+
+            return REMOVE_DIACRITICALS_PATTERN.matcher(sb.toString()).replaceAll("")
+                    .toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static com.android.settings.intelligence.search.indexing.IndexDatabaseHelper.Tables.TABLE_META_INDEX;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+
+@RunWith(AndroidJUnit4.class)
+public class IndexDatabaseHelperTest {
+
+    private static final String TEST_DATABASE_NAME = "search_index_test.db";
+
+    private Context mContext;
+    private IndexDatabaseHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+        mHelper = new IndexDatabaseHelper(mContext, TEST_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void onCreate_stampsBuildVersion() {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        assertEquals(Build.VERSION.INCREMENTAL, IndexDatabaseHelper.getBuildVersion(db));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE_META_INDEX));
+    }
+
+    @Test
+    public void reconstruct_stampsBuildVersion() {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        mHelper.reconstruct(db);
+
+        assertEquals(Build.VERSION.INCREMENTAL, IndexDatabaseHelper.getBuildVersion(db));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE_META_INDEX));
+    }
+
+    @Test
+    public void finishFullIndex_replacesBuildVersion() {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+
+        mHelper.finishFullIndex(db, Collections.<String>emptyList());
+
+        assertEquals(Build.VERSION.INCREMENTAL, IndexDatabaseHelper.getBuildVersion(db));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, TABLE_META_INDEX));
+    }
+}
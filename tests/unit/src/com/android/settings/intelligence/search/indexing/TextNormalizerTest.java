@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.intelligence.search.indexing;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * The expected values are the output of the regular expression based normalization of
+ * {@link IndexData} which {@link TextNormalizer} replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TextNormalizerTest {
+
+    private static final String NON_BREAKING_HYPHEN_WIFI = "Wi\u2011Fi";
+    private static final String FULL_WIDTH_WIFI = "\uFF37\uFF49\uFF0D\uFF26\uFF49";
+    private static final String ACCENTED = "Pr\u00E9f\u00E9rences r\u00E9seau";
+    // "Bluetooth" in Hiragana, with a voiced mark and a small vowel.
+    private static final String HIRAGANA = "\u3076\u308B\u30FC\u3068\u3045\u30FC\u3059";
+
+    @Test
+    public void normalizeString_nullOrEmpty_returnsEmpty() {
+        assertEquals("", TextNormalizer.normalizeString(null));
+        assertEquals("", TextNormalizer.normalizeString(""));
+    }
+
+    @Test
+    public void normalizeString_removesHyphensAndDiacritics() {
+        assertEquals("bluetooth", TextNormalizer.normalizeString("Bluetooth"));
+        assertEquals("wifi", TextNormalizer.normalizeString(NON_BREAKING_HYPHEN_WIFI));
+        assertEquals("donotdisturb", TextNormalizer.normalizeString("Do-not-disturb"));
+        assertEquals("preferences reseau", TextNormalizer.normalizeString(ACCENTED));
+        assertEquals("uber das telefon", TextNormalizer.normalizeString("\u00DCber das Telefon"));
+    }
+
+    @Test
+    public void normalizeString_keepsFullWidthAndKana() {
+        assertEquals("\uFF57\uFF49\uFF0D\uFF46\uFF49",
+                TextNormalizer.normalizeString(FULL_WIDTH_WIFI));
+        assertEquals("\u3075\u3099\u308B\u30FC\u3068\u3045\u30FC\u3059",
+                TextNormalizer.normalizeString(HIRAGANA));
+    }
+
+    @Test
+    public void normalizeJapaneseString_nullOrEmpty_returnsEmpty() {
+        assertEquals("", TextNormalizer.normalizeJapaneseString(null));
+        assertEquals("", TextNormalizer.normalizeJapaneseString(""));
+    }
+
+    @Test
+    public void normalizeJapaneseString_foldsWidthAndHiragana() {
+        assertEquals("wi-fi", TextNormalizer.normalizeJapaneseString(FULL_WIDTH_WIFI));
+        assertEquals("\u30D5\u3099\u30EB\u30FC\u30C8\u30A5\u30FC\u30B9",
+                TextNormalizer.normalizeJapaneseString(HIRAGANA));
+    }
+
+    @Test
+    public void normalizeJapaneseString_removesHyphensAndDiacritics() {
+        assertEquals("wi\u2010fi",
+                TextNormalizer.normalizeJapaneseString(NON_BREAKING_HYPHEN_WIFI));
+        assertEquals("donotdisturb", TextNormalizer.normalizeJapaneseString("Do-not-disturb"));
+        assertEquals("preferences reseau", TextNormalizer.normalizeJapaneseString(ACCENTED));
+    }
+
+    @Test
+    public void normalizeHyphen_replacesNonBreakingHyphen() {
+        assertEquals("", TextNormalizer.normalizeHyphen(null));
+        assertEquals("Wi-Fi", TextNormalizer.normalizeHyphen(NON_BREAKING_HYPHEN_WIFI));
+        assertEquals(FULL_WIDTH_WIFI, TextNormalizer.normalizeHyphen(FULL_WIDTH_WIFI));
+        assertEquals(ACCENTED, TextNormalizer.normalizeHyphen(ACCENTED));
+    }
+
+    @Test
+    public void normalizeKeywords_replacesDelimitersWithSpaces() {
+        assertEquals("", TextNormalizer.normalizeKeywords(null));
+        assertEquals("", TextNormalizer.normalizeKeywords(""));
+        assertEquals("wifi wi-fi network connection",
+                TextNormalizer.normalizeKeywords("wifi, wi-fi, network connection"));
+        assertEquals("display screen brightness timeout sleep",
+                TextNormalizer.normalizeKeywords("display, screen, brightness,   timeout, sleep"));
+        assertEquals("battery power usage usage saver",
+                TextNormalizer.normalizeKeywords("battery, power usage,usage, saver"));
+    }
+}